@@ -0,0 +1,74 @@
+package raster;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares <code>renderChunks</code> throughput for the same points divided into chunks differently:
+ * one huge chunk, many small chunks, and a few chunks of very different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkSplitBenchmark {
+
+    public enum Layout {ONE_HUGE, MANY_SMALL, UNEVEN}
+
+    private static final int TOTAL_POINTS = 1 << 24;
+
+    @Param({"ONE_HUGE", "MANY_SMALL", "UNEVEN"})
+    public Layout layout;
+
+    @Param({"4", "8"})
+    public int threads;
+
+    @Param({"4096", "65536", "1048576"})
+    public int grainSize;
+
+    private RasterPlot plot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        plot = new RasterPlot(new Dimension(2048, 2048));
+        plot.setMaxThreadCount(threads);
+        plot.setChunkGrainSize(grainSize);
+        plot.setColoringRule(Workloads.rule(Workloads.RuleCost.CHEAP));
+        switch (layout) {
+            case ONE_HUGE:
+                plot.putChunk(Workloads.chunks(Workloads.Distribution.UNIFORM, 1, TOTAL_POINTS, 42)[0]);
+                break;
+            case MANY_SMALL:
+                for (float[] chunk : Workloads.chunks(Workloads.Distribution.UNIFORM, 1024, TOTAL_POINTS / 1024, 42)) {
+                    plot.putChunk(chunk);
+                }
+                break;
+            case UNEVEN:
+                // halves: 1/2, 1/4, 1/8 ... of all points
+                int size = TOTAL_POINTS / 2;
+                int left = TOTAL_POINTS;
+                while (left > 0) {
+                    plot.putChunk(Workloads.chunks(Workloads.Distribution.UNIFORM, 1, size, left)[0]);
+                    left -= size;
+                    size = Math.max(1, Math.min(left, size / 2));
+                }
+                break;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plot.close();
+    }
+
+    @Benchmark
+    public RasterPlot renderChunks(Throughput counters) throws ExecutionException {
+        counters.points += TOTAL_POINTS;
+        return plot.renderChunks();
+    }
+}
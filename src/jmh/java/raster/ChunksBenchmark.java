@@ -0,0 +1,61 @@
+package raster;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for <code>RasterPlot.renderChunks</code> over point clouds of various shapes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunksBenchmark {
+
+    @Param({"1024", "4096"})
+    public int resolution;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    @Param({"1", "16", "256"})
+    public int chunkCount;
+
+    @Param({"10000", "100000"})
+    public int chunkSize;
+
+    @Param({"UNIFORM", "GAUSSIAN", "CLUSTERED"})
+    public Workloads.Distribution distribution;
+
+    @Param({"CHEAP", "EXPENSIVE"})
+    public Workloads.RuleCost ruleCost;
+
+    private RasterPlot plot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        plot = new RasterPlot(new Dimension(resolution, resolution));
+        plot.setMaxThreadCount(threads);
+        plot.setColoringRule(Workloads.rule(ruleCost));
+        for (float[] chunk : Workloads.chunks(distribution, chunkCount, chunkSize, 42)) {
+            plot.putChunk(chunk);
+        }
+        plot.clearPlot();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plot.shutdown();
+    }
+
+    @Benchmark
+    public RasterPlot renderChunks(Throughput counters) throws ExecutionException {
+        counters.points += (long) chunkCount * chunkSize;
+        return plot.renderChunks();
+    }
+}
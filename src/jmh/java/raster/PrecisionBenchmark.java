@@ -0,0 +1,54 @@
+package raster;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of double precision coordinates in <code>renderSolid</code> relative to the float path,
+ * with rules which do the same math in either precision.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrecisionBenchmark {
+
+    @Param({"512", "2048"})
+    public int resolution;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"CHEAP", "EXPENSIVE"})
+    public Workloads.RuleCost ruleCost;
+
+    @Param({"FLOAT", "DOUBLE"})
+    public RasterPlot.Precision precision;
+
+    private RasterPlot plot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        plot = new RasterPlot(new Dimension(resolution, resolution));
+        plot.setMaxThreadCount(threads);
+        plot.setColoringRule(Workloads.preciseRule(ruleCost));
+        plot.setPrecision(precision);
+        plot.renderSolid();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plot.shutdown();
+    }
+
+    @Benchmark
+    public RasterPlot renderSolid(Throughput counters) throws ExecutionException {
+        counters.pixels += (long) resolution * resolution;
+        return plot.renderSolid();
+    }
+}
@@ -0,0 +1,82 @@
+package raster;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the render paths that touch every pixel of the plot plane.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolidBenchmark {
+
+    @Param({"512", "2048", "8192"})
+    public int resolution;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    @Param({"CHEAP", "MEDIUM", "EXPENSIVE"})
+    public Workloads.RuleCost ruleCost;
+
+    private RasterPlot plot;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        plot = new RasterPlot(new Dimension(resolution, resolution));
+        plot.setMaxThreadCount(threads);
+        plot.setColoringRule(Workloads.rule(ruleCost));
+        plot.renderSolid();
+        output = File.createTempFile("raster-bench", ".png");
+        output.deleteOnExit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plot.shutdown();
+        output.delete();
+    }
+
+    private long pixels() {
+        return (long) resolution * resolution;
+    }
+
+    @Benchmark
+    public RasterPlot renderSolid(Throughput counters) throws ExecutionException {
+        counters.pixels += pixels();
+        return plot.renderSolid();
+    }
+
+    @Benchmark
+    public RasterPlot clearPlot(Throughput counters) throws ExecutionException {
+        counters.pixels += pixels();
+        return plot.clearPlot();
+    }
+
+    @Benchmark
+    public int[] computePixelBoundingBox(Throughput counters) {
+        counters.pixels += pixels();
+        return plot.computePixelBoundingBox();
+    }
+
+    @Benchmark
+    public RasterPlot drawLabel() {
+        return plot.drawLabel("benchmark", RasterPlot.LabelPosition.CENTER);
+    }
+
+    @Benchmark
+    public RasterPlot saveToFile(Throughput counters) throws IOException {
+        counters.pixels += pixels();
+        return plot.saveToFile(output.getPath(), "png");
+    }
+}
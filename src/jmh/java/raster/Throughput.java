@@ -0,0 +1,25 @@
+package raster;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary benchmark counters. JMH reports <code>OPERATIONS</code> counters as rates, so
+ * these show up next to ops/s as pixels/s and points/s.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    public long pixels;
+    public long points;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        pixels = 0;
+        points = 0;
+    }
+}
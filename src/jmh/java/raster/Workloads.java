@@ -0,0 +1,145 @@
+package raster;
+
+import java.awt.*;
+import java.util.Random;
+
+/**
+ * Shared inputs for the benchmarks: coloring rules of different cost and point clouds
+ * with different spatial distributions.
+ */
+public final class Workloads {
+
+    public enum RuleCost {CHEAP, MEDIUM, EXPENSIVE}
+
+    public enum Distribution {UNIFORM, GAUSSIAN, CLUSTERED}
+
+    private static final int RED = Color.RED.getRGB();
+    private static final int GREEN = Color.GREEN.getRGB();
+
+    private Workloads() {
+    }
+
+    static ColoringRule rule(RuleCost cost) {
+        switch (cost) {
+            case CHEAP:
+                return new ColoringRule() {
+                    @Override
+                    public int colorFunction(float x, float y) {
+                        return x * y > 0 ? GREEN : RED;
+                    }
+                };
+            case MEDIUM:
+                return new ColoringRule() {
+                    @Override
+                    public int colorFunction(float x, float y) {
+                        return Math.abs(x * x * x - y) < 0.1f ? RED : GREEN;
+                    }
+                };
+            case EXPENSIVE:
+            default:
+                // escape-time iteration, the typical "fractal-style" rule
+                return new ColoringRule(Color.BLACK) {
+                    @Override
+                    public int colorFunction(float x, float y) {
+                        float cx = x * 1.5f - 0.5f;
+                        float zx = 0, zy = 0;
+                        int i = 0;
+                        while (i < 64 && zx * zx + zy * zy < 4) {
+                            float t = zx * zx - zy * zy + cx;
+                            zy = 2 * zx * zy + y;
+                            zx = t;
+                            i++;
+                        }
+                        return 0xFF000000 | (i * 4) << 8;
+                    }
+                };
+        }
+    }
+
+    /**
+     * Same rules as <code>rule</code>, which also implement double precision forms of <code>colorFunction</code>
+     * with the same math, so that both precisions do the same work.
+     */
+    static ColoringRule preciseRule(RuleCost cost) {
+        ColoringRule rule = rule(cost);
+        switch (cost) {
+            case CHEAP:
+                return new ColoringRule() {
+                    @Override
+                    public int colorFunction(float x, float y) {
+                        return rule.colorFunction(x, y);
+                    }
+
+                    @Override
+                    public int colorFunction(double x, double y) {
+                        return x * y > 0 ? GREEN : RED;
+                    }
+                };
+            case MEDIUM:
+                return new ColoringRule() {
+                    @Override
+                    public int colorFunction(float x, float y) {
+                        return rule.colorFunction(x, y);
+                    }
+
+                    @Override
+                    public int colorFunction(double x, double y) {
+                        return Math.abs(x * x * x - y) < 0.1 ? RED : GREEN;
+                    }
+                };
+            case EXPENSIVE:
+            default:
+                return new ColoringRule(Color.BLACK) {
+                    @Override
+                    public int colorFunction(float x, float y) {
+                        return rule.colorFunction(x, y);
+                    }
+
+                    @Override
+                    public int colorFunction(double x, double y) {
+                        double cx = x * 1.5 - 0.5;
+                        double zx = 0, zy = 0;
+                        int i = 0;
+                        while (i < 64 && zx * zx + zy * zy < 4) {
+                            double t = zx * zx - zy * zy + cx;
+                            zy = 2 * zx * zy + y;
+                            zx = t;
+                            i++;
+                        }
+                        return 0xFF000000 | (i * 4) << 8;
+                    }
+                };
+        }
+    }
+
+    /**
+     * Generates <code>count</code> chunks of <code>size</code> points inside the default bounds.
+     */
+    static float[][] chunks(Distribution distribution, int count, int size, long seed) {
+        Random rng = new Random(seed);
+        float[][] result = new float[count][];
+        for (int c = 0; c < count; c++) {
+            float[] chunk = new float[size * 2];
+            for (int i = 0; i < chunk.length; i += 2) {
+                switch (distribution) {
+                    case UNIFORM:
+                        chunk[i] = rng.nextFloat() * 2 - 1;
+                        chunk[i + 1] = rng.nextFloat() * 2 - 1;
+                        break;
+                    case GAUSSIAN:
+                        chunk[i] = (float) rng.nextGaussian() * 0.3f;
+                        chunk[i + 1] = (float) rng.nextGaussian() * 0.3f;
+                        break;
+                    case CLUSTERED:
+                    default:
+                        // few tight clusters - lots of points landing on the same pixels
+                        float cx = (rng.nextInt(4) - 1.5f) * 0.4f;
+                        chunk[i] = cx + (float) rng.nextGaussian() * 0.01f;
+                        chunk[i + 1] = (float) rng.nextGaussian() * 0.01f;
+                }
+            }
+            result[c] = chunk;
+        }
+        return result;
+    }
+}
@@ -5,6 +5,7 @@ import java.awt.*;
 public abstract class ColoringRule {
 
     private int backColor;
+    private volatile long version;
 
     public ColoringRule() {
         backColor = Color.WHITE.getRGB();
@@ -33,6 +34,23 @@ public abstract class ColoringRule {
 
     public void setBackColor(int backColor) {
         this.backColor = backColor;
+        invalidate();
+    }
+
+    /**
+     * @return Version of this rule, which changes every time <code>invalidate</code> is called.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Tells that colors computed by this rule have changed, e.g. because its parameters were modified.
+     * Buffers rendered with earlier versions of the rule are not reused after this call
+     * (see <code>RasterPlot.setRenderCache</code> and <code>RasterPlot.renderSolidIncremental</code>).
+     */
+    public synchronized void invalidate() {
+        version++;
     }
 
     /**
@@ -45,4 +63,83 @@ public abstract class ColoringRule {
      * @return Resulting color.
      */
     public abstract int colorFunction(float x, float y);
+
+    /**
+     * Double precision form of <code>colorFunction</code>, used by <code>RasterPlot</code> in
+     * <code>Precision.DOUBLE</code> mode. The default implementation rounds coordinates to <code>float</code>;
+     * rules meant for deep zooms should override it.
+     *
+     * @param x - x-coordinate
+     * @param y - y-coordinate
+     * @return Resulting color.
+     */
+    public int colorFunction(double x, double y) {
+        return colorFunction((float) x, (float) y);
+    }
+
+    /**
+     * Tells whether <code>RasterPlot.renderSolidAdaptive</code> may skip evaluation of regions whose border
+     * is of a single color. This is true for rules with large flat regions, but not for rules which can have
+     * features smaller than a render tile (thin lines, isolated dots); such rules should return
+     * <code>false</code>, so that every pixel is evaluated.
+     *
+     * @return <code>true</code> by default
+     */
+    public boolean isSubdivisionSafe() {
+        return true;
+    }
+
+    /**
+     * Batch form of <code>colorFunction</code>, used by <code>RasterPlot</code> to fill a whole row of pixels
+     * at once. Point <code>i</code> of the row has coordinates (<code>x0 + i * dx</code>, <code>y</code>).
+     * The default implementation calls <code>colorFunction</code> for every point; rules that are called
+     * from many places in one JVM should override it with a tight loop, so that the call is made once per row
+     * instead of once per pixel.
+     *
+     * @param y      - y-coordinate of the row
+     * @param x0     - x-coordinate of the first point
+     * @param dx     - step between two adjacent points
+     * @param out    - destination array
+     * @param offset - index in <code>out</code> of the first point
+     * @param length - number of points
+     */
+    public void colorRow(float y, float x0, float dx, int[] out, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = colorFunction(x0 + (float) i * dx, y);
+        }
+    }
+
+    /**
+     * Double precision form of <code>colorRow</code>, used by <code>RasterPlot</code> in
+     * <code>Precision.DOUBLE</code> mode. The default implementation calls <code>colorFunction(double, double)</code>
+     * for every point.
+     *
+     * @param y      - y-coordinate of the row
+     * @param x0     - x-coordinate of the first point
+     * @param dx     - step between two adjacent points
+     * @param out    - destination array
+     * @param offset - index in <code>out</code> of the first point
+     * @param length - number of points
+     */
+    public void colorRow(double y, double x0, double dx, int[] out, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = colorFunction(x0 + (double) i * dx, y);
+        }
+    }
+
+    /**
+     * Batch form of <code>colorFunction</code> for arbitrary points, used by <code>RasterPlot</code> when
+     * rendering chunks. The default implementation calls <code>colorFunction</code> for every point.
+     *
+     * @param xy        - array of points {x1, y1, ... xN, yN}
+     * @param offset    - index in <code>xy</code> of the x-coordinate of the first point
+     * @param count     - number of points
+     * @param out       - destination array
+     * @param outOffset - index in <code>out</code> of the color of the first point
+     */
+    public void colorPoints(float[] xy, int offset, int count, int[] out, int outOffset) {
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] = colorFunction(xy[offset + 2 * i], xy[offset + 2 * i + 1]);
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package raster;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Summary of points of a render chain, used by <code>RasterPlot</code> to derive bounds from the data:
+ * extent of all points and, optionally, quantile sketches of both coordinates. Each series of points is
+ * summarized in parallel, by ranges which are merged afterwards.
+ * <p>
+ * Series can also be put aside to be summarized later (see <code>defer</code>), which is how large
+ * point sources avoid being read before anything asks for their summary.
+ */
+final class DataStats {
+
+    /**
+     * Minimal number of points summarized by a single task.
+     */
+    private static final int GRAIN = 1 << 16;
+
+    private final Part total = new Part(0);
+    private final ArrayList<FloatBuffer> deferred = new ArrayList<>();
+    private int sketchCapacity;
+
+    /**
+     * @return capacity of quantile sketches, 0 if quantiles are not tracked
+     */
+    int sketchCapacity() {
+        return sketchCapacity;
+    }
+
+    /**
+     * Starts tracking quantiles with sketches of <code>capacity</code>, or stops if it is 0. Everything
+     * summarized before is forgotten, so series have to be added again.
+     */
+    void reset(int capacity) {
+        total.reset(capacity);
+        sketchCapacity = capacity;
+        deferred.clear();
+    }
+
+    void defer(FloatBuffer xy) {
+        deferred.add(xy.duplicate());
+    }
+
+    /**
+     * Summarizes <code>xy</code> and merges it into the summary. If this fails, the summary is left as it was,
+     * so the series can be deferred or added again without being counted twice.
+     */
+    void add(FloatBuffer xy, ExecutorService executor, int threads) throws ExecutionException {
+        int points = xy.remaining() / 2;
+        int parts = Math.max(1, Math.min(threads, points / GRAIN));
+        if (parts == 1) {
+            // not worth a task
+            total.merge(summarize(xy, 0, points, sketchCapacity));
+            return;
+        }
+        ArrayList<Callable<Part>> tasks = new ArrayList<>(parts);
+        for (int part = 0; part < parts; part++) {
+            int from = (int) ((long) points * part / parts);
+            int to = (int) ((long) points * (part + 1) / parts);
+            tasks.add(() -> summarize(xy, from, to, sketchCapacity));
+        }
+        // parts are published only once all of them are done
+        Part series = new Part(sketchCapacity);
+        try {
+            for (Future<Part> future : executor.invokeAll(tasks)) {
+                series.merge(future.get());
+            }
+            total.merge(series);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * Summarizes all deferred series.
+     */
+    void flush(ExecutorService executor, int threads) throws ExecutionException {
+        while (!deferred.isEmpty()) {
+            add(deferred.get(0), executor, threads);
+            deferred.remove(0);
+        }
+    }
+
+    /**
+     * @return {minX, minY, maxX, maxY} of all points
+     */
+    float[] extent() {
+        return new float[]{total.minX, total.minY, total.maxX, total.maxY};
+    }
+
+    /**
+     * @return {x, y} at quantiles <code>low</code> and <code>high</code>: {xLow, yLow, xHigh, yHigh}
+     */
+    float[] quantiles(double low, double high) {
+        return new float[]{total.x.quantile(low), total.y.quantile(low),
+                total.x.quantile(high), total.y.quantile(high)};
+    }
+
+    private static Part summarize(FloatBuffer xy, int from, int to, int sketchCapacity) {
+        Part part = new Part(sketchCapacity);
+        int base = xy.position();
+        for (int p = from; p < to; p++) {
+            part.add(xy.get(base + 2 * p), xy.get(base + 2 * p + 1));
+        }
+        return part;
+    }
+
+    private static final class Part {
+        float minX, minY, maxX, maxY;
+        QuantileSketch x, y;
+
+        Part(int sketchCapacity) {
+            reset(sketchCapacity);
+        }
+
+        void reset(int sketchCapacity) {
+            minX = minY = Float.POSITIVE_INFINITY;
+            maxX = maxY = Float.NEGATIVE_INFINITY;
+            x = sketchCapacity == 0 ? null : new QuantileSketch(sketchCapacity);
+            y = sketchCapacity == 0 ? null : new QuantileSketch(sketchCapacity);
+        }
+
+        void add(float px, float py) {
+            if (px < minX) minX = px;
+            if (px > maxX) maxX = px;
+            if (py < minY) minY = py;
+            if (py > maxY) maxY = py;
+            if (x != null) {
+                x.add(px);
+                y.add(py);
+            }
+        }
+
+        void merge(Part other) {
+            minX = Math.min(minX, other.minX);
+            minY = Math.min(minY, other.minY);
+            maxX = Math.max(maxX, other.maxX);
+            maxY = Math.max(maxY, other.maxY);
+            if (x != null) {
+                x.merge(other.x);
+                y.merge(other.y);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package raster;
+
+/**
+ * Bounds of plot plane in double precision, for zoom levels at which <code>float</code> coordinates of
+ * adjacent pixels are equal (see <code>RasterPlot.setPrecision</code>).
+ */
+public class DoubleBounds {
+    private double minX;
+    private double maxX;
+    private double minY;
+    private double maxY;
+
+    public DoubleBounds(double[] bounds) {
+        this(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    public DoubleBounds(double xmin, double ymin, double xmax, double ymax) {
+        this.minX = xmin;
+        this.minY = ymin;
+        this.maxX = xmax;
+        this.maxY = ymax;
+    }
+
+    public DoubleBounds(Bounds bounds) {
+        this(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+    }
+
+    public double getSpanX() {
+        return maxX - minX;
+    }
+
+    public double getSpanY() {
+        return maxY - minY;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public void setMinX(double minX) {
+        this.minX = minX;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public void setMaxX(double maxX) {
+        this.maxX = maxX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public void setMinY(double minY) {
+        this.minY = minY;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    public void setMaxY(double maxY) {
+        this.maxY = maxY;
+    }
+
+    public double[] getAll() {
+        return new double[]{this.minX, this.minY, this.maxX, this.maxY};
+    }
+
+    public void setAll(double[] bounds) {
+        this.minX = bounds[0];
+        this.minY = bounds[1];
+        this.maxX = bounds[2];
+        this.maxY = bounds[3];
+    }
+
+    /**
+     * @return These bounds, rounded to <code>float</code>.
+     */
+    public Bounds toBounds() {
+        return new Bounds((float) minX, (float) minY, (float) maxX, (float) maxY);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DoubleBounds<(%s,%s), (%s,%s)>", minX, minY, maxX, maxY);
+    }
+}
@@ -0,0 +1,33 @@
+package raster;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntFunction;
+
+/**
+ * Renderer of frames of a <code>FrameSequence</code>.
+ */
+public interface FrameRenderer {
+
+    /**
+     * Renders frame number <code>frame</code> on <code>plot</code>: sets its bounds, coloring rule and other
+     * parameters of the frame, and calls a render function. Called from the thread which runs the sequence,
+     * one frame at a time, in order. Surfaces are reused for later frames, so everything which differs between
+     * frames has to be set on every call.
+     *
+     * @param plot  plot surface to render the frame on
+     * @param frame frame number, from 0
+     */
+    void render(RasterPlot plot, int frame) throws ExecutionException;
+
+    /**
+     * Creates a renderer, which fills each frame by <code>renderSolid</code> with the bounds and coloring rule
+     * given for the frame.
+     *
+     * @param bounds bounds of each frame
+     * @param rules  coloring rule of each frame
+     * @return new renderer
+     */
+    static FrameRenderer solid(IntFunction<Bounds> bounds, IntFunction<ColoringRule> rules) {
+        return (plot, frame) -> plot.setBounds(bounds.apply(frame)).setColoringRule(rules.apply(frame)).renderSolid();
+    }
+}
@@ -0,0 +1,136 @@
+package raster;
+
+import java.awt.*;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The <code>FrameSequence</code> class renders series of frames (animations, parameter sweeps) as a pipeline:
+ * while one frame is written by encoder threads, the next one is already rendered on another plot surface.
+ * <p>
+ * The sequence owns several <code>RasterPlot</code> surfaces of the same resolution (two for double buffering,
+ * three for triple buffering, and so on), which share a single render executor. Frames are rendered one at a
+ * time, in order, by the thread which runs the sequence; a rendered frame is handed to a separate pool of
+ * encoder threads, and its surface is reused as soon as it is written. The number of surfaces limits the
+ * number of frames in flight: when all of them wait for encoding, rendering waits too.
+ */
+public class FrameSequence implements AutoCloseable {
+
+    private final RasterPlot[] surfaces;
+    private final ExecutorService renderPool;
+    private final ExecutorService encoderPool;
+
+    /**
+     * Constructor for <code>FrameSequence</code> class: triple buffering, one render thread per processor
+     * and a single encoder thread.
+     *
+     * @param resolution Resolution of frames, in pixels.
+     */
+    public FrameSequence(Dimension resolution) {
+        this(resolution, 3, Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    /**
+     * Constructor for <code>FrameSequence</code> class.
+     *
+     * @param resolution     Resolution of frames, in pixels.
+     * @param surfaces       Number of plot surfaces, at least 2.
+     * @param renderThreads  Number of render threads, shared by all surfaces.
+     * @param encoderThreads Number of encoder threads; more than <code>surfaces - 1</code> are never busy at once.
+     */
+    public FrameSequence(Dimension resolution, int surfaces, int renderThreads, int encoderThreads) {
+        if (surfaces < 2 || encoderThreads < 1) {
+            throw new IllegalArgumentException("Need at least 2 surfaces and 1 encoder thread");
+        }
+        this.renderPool = new ForkJoinPool(renderThreads);
+        this.encoderPool = Executors.newFixedThreadPool(encoderThreads);
+        this.surfaces = new RasterPlot[surfaces];
+        for (int i = 0; i < surfaces; i++) {
+            this.surfaces[i] = new RasterPlot(resolution).setMaxThreadCount(renderThreads).setExecutor(renderPool);
+        }
+    }
+
+    /**
+     * @return Number of plot surfaces.
+     */
+    public int getSurfaceCount() {
+        return surfaces.length;
+    }
+
+    /**
+     * Returns plot surface number <code>i</code>, to set its parameters which are the same for all frames
+     * (e.g. settings of its PNG writer).
+     *
+     * @param i Surface number.
+     * @return Plot surface.
+     */
+    public RasterPlot getSurface(int i) {
+        return surfaces[i];
+    }
+
+    /**
+     * Renders frames <code>0 .. frames - 1</code> with <code>renderer</code> and writes them to <code>sink</code>,
+     * returning when all frames are written. Stops at the first failure, after frames in flight are written.
+     *
+     * @param frames   Number of frames.
+     * @param renderer Renderer of frames.
+     * @param sink     Destination of frames.
+     * @throws ExecutionException if rendering a frame fails
+     * @throws IOException        if writing a frame fails
+     */
+    public void run(int frames, FrameRenderer renderer, FrameSink sink) throws ExecutionException, IOException {
+        BlockingQueue<RasterPlot> free = new ArrayBlockingQueue<>(surfaces.length);
+        for (RasterPlot surface : surfaces) {
+            free.add(surface);
+        }
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        ArrayDeque<Future<?>> inFlight = new ArrayDeque<>();
+        try {
+            for (int frame = 0; frame < frames && failure.get() == null; frame++) {
+                RasterPlot plot = free.take();
+                renderer.render(plot, frame);
+                int number = frame;
+                inFlight.add(encoderPool.submit(() -> {
+                    try {
+                        sink.write(plot, number);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        free.add(plot);
+                    }
+                    return null;
+                }));
+                while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                    inFlight.poll().get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        } finally {
+            // surfaces must not be touched by encoders after this returns
+            for (Future<?> future : inFlight) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignored) {
+                }
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Shuts down render and encoder threads of this sequence.
+     */
+    @Override
+    public void close() {
+        renderPool.shutdown();
+        encoderPool.shutdown();
+    }
+}
@@ -0,0 +1,100 @@
+package raster;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Destination of frames of a <code>FrameSequence</code>.
+ */
+public interface FrameSink {
+
+    /**
+     * Writes frame number <code>frame</code>, which is rendered on <code>plot</code>. Called from encoder threads
+     * of the sequence, possibly for several frames at once, so frames may arrive out of order. The plot must
+     * not be changed, and is not used for other frames until this returns.
+     *
+     * @param plot  plot surface with the frame
+     * @param frame frame number, from 0
+     */
+    void write(RasterPlot plot, int frame) throws IOException;
+
+    /**
+     * Creates a sink, which saves every frame to its own file by <code>RasterPlot.saveToFile</code>.
+     *
+     * @param pattern pattern of file names, formatted with the frame number, e.g. <code>"frame-%05d.png"</code>
+     * @param format  image format
+     * @return new sink
+     */
+    static FrameSink numberedFiles(String pattern, String format) {
+        return (plot, frame) -> plot.saveToFile(String.format(pattern, frame), format);
+    }
+
+    /**
+     * Creates a sink, which writes all frames to <code>channel</code> one after another, in raw
+     * <code>format</code>, in order of frame numbers. Frames are converted in parallel, each into a buffer
+     * of its encoder thread, and only written in order. The channel is not closed. Frame numbers have to start
+     * from 0, so a sink can be used for a single run of a sequence only. Once a frame fails, frames after it
+     * fail too, rather than leave a gap in the stream.
+     *
+     * @param channel output channel, e.g. a pipe to a video encoder
+     * @param format  raw format
+     * @return new sink
+     */
+    static FrameSink rawStream(WritableByteChannel channel, RawFormat format) {
+        return new FrameSink() {
+            private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+            private int next;
+            // first frame which was not written, frames after it can't be written without a gap
+            private int failed = -1;
+
+            @Override
+            public void write(RasterPlot plot, int frame) throws IOException {
+                boolean written = false;
+                try {
+                    int size = (int) format.getSize(plot.getResolution().width, plot.getResolution().height);
+                    ByteBuffer buffer = buffers.get();
+                    if (buffer == null || buffer.capacity() != size) {
+                        buffer = ByteBuffer.allocateDirect(size);
+                        buffers.set(buffer);
+                    }
+                    buffer.clear();
+                    try {
+                        plot.exportRaw(buffer, format);
+                        buffer.flip();
+                    } catch (ExecutionException e) {
+                        throw new IOException("Failed to export frame " + frame, e.getCause());
+                    }
+                    synchronized (this) {
+                        while (next < frame) {
+                            if (failed >= 0 && failed < frame) {
+                                throw new IOException("Frame " + failed + " failed, frame " + frame + " is not written");
+                            }
+                            wait();
+                        }
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        written = true;
+                        next = frame + 1;
+                        notifyAll();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for frame " + next, e);
+                } finally {
+                    if (!written) {
+                        // whatever went wrong, frames waiting for this one must not wait forever
+                        synchronized (this) {
+                            if (failed < 0 || frame < failed) {
+                                failed = frame;
+                            }
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+        };
+    }
+}
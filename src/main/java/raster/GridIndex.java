@@ -0,0 +1,244 @@
+package raster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Uniform grid over points of chunks, used by <code>RasterPlot</code> to render only the points which
+ * can be visible in current bounds. Consecutive chunks are indexed in groups of at least
+ * <code>max(cells, 65536)</code> points; for every group, numbers of its points (counted through its chunks)
+ * are sorted by grid cell (cells go row by row), so points of a row of adjacent cells form a single
+ * contiguous range. A group takes one int per point and one int per cell, so the index takes at most
+ * two ints per point, plus one int per cell for the last group, which may be smaller.
+ * <p>
+ * Chunks which don't yet add up to a group are left unindexed, to be rendered in full, until more chunks arrive
+ * or the index is completed with <code>add(chunks, true, ...)</code>.
+ * <p>
+ * Grid extent is fixed when the index is created; points outside of it are put into the nearest
+ * border cell, so they are still found, only less efficiently.
+ */
+final class GridIndex {
+
+    /**
+     * Minimal number of points sorted by a single task when the index is built.
+     */
+    private static final int BUILD_GRAIN = 1 << 16;
+
+    /**
+     * Largest number of cells along each axis.
+     */
+    static final int MAX_CELLS_PER_AXIS = 1 << 12;
+
+    final float minX, minY, maxX, maxY;
+    final int cellsX, cellsY;
+    private final float cellsPerUnitX, cellsPerUnitY;
+
+    // one entry per group: points of cell c are points[cellStart[c]] .. points[cellStart[c + 1] - 1],
+    // point p of the group is point p - chunkStart[k] of its chunk firstChunk + k
+    private final ArrayList<int[]> cellStarts = new ArrayList<>();
+    private final ArrayList<int[]> points = new ArrayList<>();
+    private final ArrayList<int[]> chunkStarts = new ArrayList<>();
+    private final ArrayList<Integer> firstChunks = new ArrayList<>();
+    private int indexedChunks;
+
+    GridIndex(float minX, float minY, float maxX, float maxY, int cellsX, int cellsY) {
+        if (cellsX <= 0 || cellsY <= 0 || cellsX > MAX_CELLS_PER_AXIS || cellsY > MAX_CELLS_PER_AXIS) {
+            throw new IllegalArgumentException("Number of cells must be between 1 and " + MAX_CELLS_PER_AXIS +
+                    " along each axis");
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.cellsX = cellsX;
+        this.cellsY = cellsY;
+        this.cellsPerUnitX = maxX > minX ? cellsX / (maxX - minX) : 0;
+        this.cellsPerUnitY = maxY > minY ? cellsY / (maxY - minY) : 0;
+    }
+
+    int cellX(float x) {
+        int cx = (int) ((x - minX) * cellsPerUnitX);
+        return cx < 0 ? 0 : cx >= cellsX ? cellsX - 1 : cx;
+    }
+
+    int cellY(float y) {
+        int cy = (int) ((y - minY) * cellsPerUnitY);
+        return cy < 0 ? 0 : cy >= cellsY ? cellsY - 1 : cy;
+    }
+
+    /**
+     * @return Number of leading chunks covered by groups; chunks after them are not indexed.
+     */
+    int indexedChunks() {
+        return indexedChunks;
+    }
+
+    int groups() {
+        return points.size();
+    }
+
+    int firstChunk(int group) {
+        return firstChunks.get(group);
+    }
+
+    int[] cellStart(int group) {
+        return cellStarts.get(group);
+    }
+
+    int[] points(int group) {
+        return points.get(group);
+    }
+
+    int[] chunkStart(int group) {
+        return chunkStarts.get(group);
+    }
+
+    /**
+     * Computes extent of all points of <code>chunks</code>, in parallel.
+     *
+     * @return {minX, minY, maxX, maxY}
+     */
+    static float[] extent(List<float[]> chunks, ExecutorService executor, int threads) throws ExecutionException {
+        ArrayList<Callable<float[]>> tasks = new ArrayList<>();
+        for (float[] chunk : chunks) {
+            int parts = parts(chunk.length / 2, threads);
+            for (int part = 0; part < parts; part++) {
+                int from = 2 * (int) ((long) (chunk.length / 2) * part / parts);
+                int to = 2 * (int) ((long) (chunk.length / 2) * (part + 1) / parts);
+                tasks.add(() -> {
+                    float[] e = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                            Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+                    for (int i = from; i < to; i += 2) {
+                        float x = chunk[i];
+                        float y = chunk[i + 1];
+                        if (x < e[0]) e[0] = x;
+                        if (x > e[2]) e[2] = x;
+                        if (y < e[1]) e[1] = y;
+                        if (y > e[3]) e[3] = y;
+                    }
+                    return e;
+                });
+            }
+        }
+        float[] extent = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (float[] e : invokeAll(executor, tasks)) {
+            extent[0] = Math.min(extent[0], e[0]);
+            extent[1] = Math.min(extent[1], e[1]);
+            extent[2] = Math.max(extent[2], e[2]);
+            extent[3] = Math.max(extent[3], e[3]);
+        }
+        return extent;
+    }
+
+    /**
+     * Indexes chunks of <code>chunks</code> which are not indexed yet, as groups of consecutive chunks.
+     * Each group is sorted by a parallel counting sort: ranges of its chunks count points per cell,
+     * then each range scatters its points to its own slots of every cell.
+     *
+     * @param all Whether to index the last chunks even if they are too small for a group.
+     */
+    void add(List<float[]> chunks, boolean all, ExecutorService executor, int threads) throws ExecutionException {
+        int cells = cellsX * cellsY;
+        long groupSize = Math.max(cells, BUILD_GRAIN);
+        while (indexedChunks < chunks.size()) {
+            int first = indexedChunks;
+            int last = first;
+            long size = 0;
+            while (last < chunks.size() && size < groupSize) {
+                size += chunks.get(last++).length / 2;
+            }
+            if (size < groupSize && !all) {
+                return;
+            }
+            sort(chunks.subList(first, last), executor, threads);
+            firstChunks.add(first);
+            indexedChunks = last;
+        }
+    }
+
+    private void sort(List<float[]> group, ExecutorService executor, int threads) throws ExecutionException {
+        int cells = cellsX * cellsY;
+        int[] chunkStart = new int[group.size() + 1];
+        for (int k = 0; k < group.size(); k++) {
+            chunkStart[k + 1] = chunkStart[k] + group.get(k).length / 2;
+        }
+        ArrayList<Callable<int[]>> counting = new ArrayList<>();
+        ArrayList<int[]> ranges = new ArrayList<>(); // {chunk, from, to} for every task
+        for (int k = 0; k < group.size(); k++) {
+            float[] chunk = group.get(k);
+            int parts = parts(chunk.length / 2, threads);
+            for (int part = 0; part < parts; part++) {
+                int from = (int) ((long) (chunk.length / 2) * part / parts);
+                int to = (int) ((long) (chunk.length / 2) * (part + 1) / parts);
+                ranges.add(new int[]{k, from, to});
+                counting.add(() -> {
+                    int[] counts = new int[cells];
+                    for (int p = from; p < to; p++) {
+                        counts[cell(chunk, p)]++;
+                    }
+                    return counts;
+                });
+            }
+        }
+        List<int[]> counts = invokeAll(executor, counting);
+
+        // turn counts of every range into offsets where the range writes its points of each cell
+        int[] cellStart = new int[cells + 1];
+        int offset = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            cellStart[cell] = offset;
+            for (int[] count : counts) {
+                int n = count[cell];
+                count[cell] = offset;
+                offset += n;
+            }
+        }
+        cellStart[cells] = offset;
+        int[] sorted = new int[offset];
+
+        ArrayList<Callable<int[]>> scattering = new ArrayList<>();
+        for (int r = 0; r < ranges.size(); r++) {
+            int[] range = ranges.get(r);
+            int[] offsets = counts.get(r);
+            float[] chunk = group.get(range[0]);
+            int base = chunkStart[range[0]];
+            scattering.add(() -> {
+                for (int p = range[1]; p < range[2]; p++) {
+                    sorted[offsets[cell(chunk, p)]++] = base + p;
+                }
+                return null;
+            });
+        }
+        invokeAll(executor, scattering);
+
+        cellStarts.add(cellStart);
+        points.add(sorted);
+        chunkStarts.add(chunkStart);
+    }
+
+    private int cell(float[] chunk, int point) {
+        return cellY(chunk[2 * point + 1]) * cellsX + cellX(chunk[2 * point]);
+    }
+
+    private static int parts(int points, int threads) {
+        return Math.max(1, Math.min(threads, points / BUILD_GRAIN));
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) throws ExecutionException {
+        ArrayList<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,86 @@
+package raster;
+
+import java.util.Arrays;
+
+/**
+ * Color lookup table used by <code>RasterPlot</code> to map values of a scalar field to colors.
+ * Entry 0 is the color of the lowest value of the range, the last entry is the color of the highest one;
+ * values in between are mapped to entries linearly. Palettes are immutable.
+ */
+public final class Palette {
+
+    private final int[] colors;
+
+    /**
+     * Constructor for <code>Palette</code> class.
+     *
+     * @param colors Colors of the table (ARGB), from the lowest value to the highest one.
+     */
+    public Palette(int[] colors) {
+        if (colors.length == 0) {
+            throw new IllegalArgumentException("Palette must have at least one color");
+        }
+        this.colors = colors.clone();
+    }
+
+    /**
+     * Creates a palette of <code>size</code> colors, which are interpolated between evenly spaced
+     * <code>stops</code> (each ARGB channel separately).
+     *
+     * @param size  Number of colors of the table.
+     * @param stops Colors at the ends of the table and, optionally, evenly spaced in between (ARGB).
+     * @return New palette.
+     */
+    public static Palette gradient(int size, int... stops) {
+        if (size < 1 || stops.length == 0) {
+            throw new IllegalArgumentException("Gradient needs a positive size and at least one stop");
+        }
+        int[] colors = new int[size];
+        if (stops.length == 1 || size == 1) {
+            Arrays.fill(colors, stops[0]);
+            return new Palette(colors);
+        }
+        for (int i = 0; i < size; i++) {
+            float t = (float) i * (stops.length - 1) / (size - 1);
+            int stop = Math.min((int) t, stops.length - 2);
+            colors[i] = mix(stops[stop], stops[stop + 1], t - stop);
+        }
+        return new Palette(colors);
+    }
+
+    /**
+     * @return Number of colors of the table.
+     */
+    public int getSize() {
+        return colors.length;
+    }
+
+    /**
+     * @param i Index of a color, from 0 to <code>getSize() - 1</code>.
+     * @return Color (ARGB).
+     */
+    public int getColor(int i) {
+        return colors[i];
+    }
+
+    /**
+     * @return Copy of the table.
+     */
+    public int[] getColors() {
+        return colors.clone();
+    }
+
+    int[] table() {
+        return colors;
+    }
+
+    private static int mix(int from, int to, float t) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = from >>> shift & 0xFF;
+            int b = to >>> shift & 0xFF;
+            result |= Math.round(a + (b - a) * t) << shift;
+        }
+        return result;
+    }
+}
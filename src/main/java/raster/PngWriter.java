@@ -0,0 +1,428 @@
+package raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder, which filters and compresses an image in parallel, reading its pixels directly from
+ * the <code>int[]</code> buffer of a <code>BufferedImage</code>.
+ * <p>
+ * The image is split into bands of rows. Each band is filtered and deflated independently into its own
+ * <code>IDAT</code> chunk: all bands but the last end with a sync flush, which aligns them to a byte boundary,
+ * so compressed bands simply follow each other in a single zlib stream. To keep compression close to that of
+ * a single deflater, each band is primed with the last 32KB of filtered data of the band before it. Checksums
+ * of bands are combined into the checksum of the whole stream at the end.
+ * <p>
+ * Images of types <code>TYPE_INT_ARGB</code>, <code>TYPE_INT_RGB</code> and <code>TYPE_INT_BGR</code> are
+ * supported; the first one is written with alpha channel, the others without.
+ */
+public class PngWriter {
+
+    /**
+     * PNG row filters. <code>ADAPTIVE</code> tries all of them on every row and keeps the one whose result
+     * has the smallest sum of absolute values (the heuristic used by libpng); it compresses best, but
+     * filters about five times slower than a single filter.
+     */
+    public enum Filter {NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE}
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final int WINDOW = 1 << 15;
+    private static final int ADLER_BASE = 65521;
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private Filter filter = Filter.UP;
+    private int bandSize = 1 << 20;
+
+    /**
+     * @return Deflate compression level, 0 to 9, or -1 for the default one.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets deflate compression level: 0 stores data uncompressed, 1 is the fastest, 9 compresses best.
+     *
+     * @param compressionLevel Compression level, 0 to 9, or -1 for the default one.
+     * @return this
+     */
+    public PngWriter setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * @return Row filter, <code>UP</code> by default.
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets row filter, which is applied to all rows.
+     *
+     * @param filter New filter.
+     * @return this
+     */
+    public PngWriter setFilter(Filter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @return Amount of uncompressed data in a band, in bytes.
+     */
+    public int getBandSize() {
+        return bandSize;
+    }
+
+    /**
+     * Sets amount of uncompressed data compressed as a single task. Bands always consist of whole rows, at least one.
+     *
+     * @param bandSize Band size, in bytes.
+     * @return this
+     */
+    public PngWriter setBandSize(int bandSize) {
+        this.bandSize = bandSize;
+        return this;
+    }
+
+    /**
+     * @param imageType type of <code>BufferedImage</code>
+     * @return <code>true</code> if images of this type can be written
+     */
+    public static boolean isSupported(int imageType) {
+        return imageType == BufferedImage.TYPE_INT_ARGB || imageType == BufferedImage.TYPE_INT_RGB ||
+                imageType == BufferedImage.TYPE_INT_BGR;
+    }
+
+    /**
+     * Writes <code>image</code> to <code>out</code>, using the common fork-join pool. The stream is not closed.
+     *
+     * @param image image of a supported type
+     * @param out   output stream
+     * @throws IOException if writing fails
+     */
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+        if (!isSupported(image.getType())) {
+            throw new IllegalArgumentException("Unsupported image type: " + image.getType());
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        write(pixels, image.getWidth(), image.getHeight(), image.getType(), out, pool, pool.getParallelism());
+    }
+
+    /**
+     * Writes <code>image</code> to <code>channel</code>, e.g. a <code>FileChannel</code>, using the common
+     * fork-join pool. The channel is not closed.
+     *
+     * @param image   image of a supported type
+     * @param channel output channel
+     * @throws IOException if writing fails
+     */
+    public void write(BufferedImage image, WritableByteChannel channel) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        write(image, out);
+        out.flush();
+    }
+
+    /**
+     * Writes pixels of an image of <code>imageType</code>, row by row, using up to <code>threads</code> tasks
+     * of <code>executor</code> at a time.
+     */
+    void write(int[] pixels, int width, int height, int imageType, OutputStream out,
+               ExecutorService executor, int threads) throws IOException {
+        // settings are read once, all bands have to be filtered the same way
+        Filter filter = this.filter;
+        int level = this.compressionLevel;
+        boolean alpha = imageType == BufferedImage.TYPE_INT_ARGB;
+        int bpp = alpha ? 4 : 3;
+        int rowBytes = 1 + width * bpp;
+        int bandRows = Math.max(1, Math.min(height, bandSize / rowBytes));
+        int bands = (height + bandRows - 1) / bandRows;
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bits per channel
+        header[9] = (byte) (alpha ? 6 : 2); // RGBA or RGB
+        writeChunk(out, "IHDR", header);
+        // zlib header: deflate with 32KB window, no preset dictionary
+        writeChunk(out, "IDAT", new byte[]{0x78, (byte) 0x9C});
+
+        // bands are written in order; only a limited number of them is kept in memory at a time
+        ArrayDeque<Future<Band>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        long adler = 1;
+        try {
+            while (submitted < bands || !pending.isEmpty()) {
+                while (submitted < bands && pending.size() < 2 * threads) {
+                    int y0 = submitted * bandRows;
+                    int y1 = Math.min(height, y0 + bandRows);
+                    boolean last = ++submitted == bands;
+                    pending.add(executor.submit(() ->
+                            encodeBand(pixels, width, imageType, bpp, rowBytes, y0, y1, last, filter, level)));
+                }
+                Band band = pending.poll().get();
+                out.write(band.chunk);
+                adler = combineAdler(adler, band.adler, band.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode image", e.getCause());
+        } finally {
+            for (Future<Band> future : pending) {
+                future.cancel(true);
+            }
+        }
+        byte[] checksum = new byte[4];
+        putInt(checksum, 0, (int) adler);
+        writeChunk(out, "IDAT", checksum);
+        writeChunk(out, "IEND", new byte[0]);
+    }
+
+    private static final class Band {
+        byte[] chunk;
+        long adler;
+        long length;
+    }
+
+    private static Band encodeBand(int[] pixels, int width, int imageType, int bpp, int rowBytes,
+                                   int y0, int y1, boolean last, Filter filter, int level) {
+        // rows of the previous band which fill the deflate window, then the band itself
+        int primeRows = y0 == 0 ? 0 : Math.min(y0, (WINDOW + rowBytes - 1) / rowBytes);
+        int from = y0 - primeRows;
+        byte[] filtered = new byte[(y1 - from) * rowBytes];
+        byte[] previous = new byte[width * bpp];
+        byte[] current = new byte[width * bpp];
+        byte[] scratch = filter == Filter.ADAPTIVE ? new byte[width * bpp] : null;
+        if (from > 0) {
+            unpack(pixels, from - 1, width, imageType, previous);
+        }
+        for (int y = from; y < y1; y++) {
+            unpack(pixels, y, width, imageType, current);
+            filterRow(filter, current, previous, y == 0, bpp, filtered, (y - from) * rowBytes, scratch);
+            byte[] t = previous;
+            previous = current;
+            current = t;
+        }
+
+        int offset = primeRows * rowBytes;
+        int length = filtered.length - offset;
+        Deflater deflater = new Deflater(level, true);
+        Band band = new Band();
+        try {
+            if (offset > 0) {
+                int window = Math.min(WINDOW, offset);
+                deflater.setDictionary(filtered, offset - window, window);
+            }
+            deflater.setInput(filtered, offset, length);
+            // 8 bytes of chunk length and type, then data, then crc
+            byte[] chunk = new byte[8 + length / 2 + 64];
+            int n = 8;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (n == chunk.length) {
+                        chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    }
+                    n += deflater.deflate(chunk, n, chunk.length - n);
+                }
+            } else {
+                while (true) {
+                    if (n == chunk.length) {
+                        chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                    }
+                    int available = chunk.length - n;
+                    int written = deflater.deflate(chunk, n, available, Deflater.SYNC_FLUSH);
+                    n += written;
+                    if (written < available) {
+                        break;
+                    }
+                }
+            }
+            chunk = Arrays.copyOf(chunk, n + 4);
+            putInt(chunk, 0, n - 8);
+            chunk[4] = 'I';
+            chunk[5] = 'D';
+            chunk[6] = 'A';
+            chunk[7] = 'T';
+            CRC32 crc = new CRC32();
+            crc.update(chunk, 4, n - 4);
+            putInt(chunk, n, (int) crc.getValue());
+            band.chunk = chunk;
+        } finally {
+            deflater.end();
+        }
+        Adler32 adler = new Adler32();
+        adler.update(filtered, offset, length);
+        band.adler = adler.getValue();
+        band.length = length;
+        return band;
+    }
+
+    /**
+     * Converts row <code>y</code> of pixels to RGBA or RGB bytes.
+     */
+    private static void unpack(int[] pixels, int y, int width, int imageType, byte[] row) {
+        int p = y * width;
+        int i = 0;
+        switch (imageType) {
+            case BufferedImage.TYPE_INT_ARGB:
+                for (int x = 0; x < width; x++) {
+                    int c = pixels[p + x];
+                    row[i++] = (byte) (c >>> 16);
+                    row[i++] = (byte) (c >>> 8);
+                    row[i++] = (byte) c;
+                    row[i++] = (byte) (c >>> 24);
+                }
+                break;
+            case BufferedImage.TYPE_INT_BGR:
+                for (int x = 0; x < width; x++) {
+                    int c = pixels[p + x];
+                    row[i++] = (byte) c;
+                    row[i++] = (byte) (c >>> 8);
+                    row[i++] = (byte) (c >>> 16);
+                }
+                break;
+            default:
+                for (int x = 0; x < width; x++) {
+                    int c = pixels[p + x];
+                    row[i++] = (byte) (c >>> 16);
+                    row[i++] = (byte) (c >>> 8);
+                    row[i++] = (byte) c;
+                }
+        }
+    }
+
+    /**
+     * Writes filter type and filtered bytes of <code>row</code> to <code>out</code> at <code>offset</code>.
+     */
+    private static void filterRow(Filter filter, byte[] row, byte[] previous, boolean first, int bpp,
+                                  byte[] out, int offset, byte[] scratch) {
+        if (filter != Filter.ADAPTIVE) {
+            out[offset] = (byte) filter.ordinal();
+            apply(filter, row, first ? null : previous, bpp, out, offset + 1);
+            return;
+        }
+        long best = Long.MAX_VALUE;
+        for (Filter candidate : new Filter[]{Filter.NONE, Filter.SUB, Filter.UP, Filter.AVERAGE, Filter.PAETH}) {
+            apply(candidate, row, first ? null : previous, bpp, scratch, 0);
+            long sum = 0;
+            for (byte b : scratch) {
+                sum += Math.abs((int) b);
+            }
+            if (sum < best) {
+                best = sum;
+                out[offset] = (byte) candidate.ordinal();
+                System.arraycopy(scratch, 0, out, offset + 1, scratch.length);
+            }
+        }
+    }
+
+    /**
+     * Applies <code>filter</code> to <code>row</code>; <code>previous</code> is <code>null</code> for the first row.
+     */
+    private static void apply(Filter filter, byte[] row, byte[] previous, int bpp, byte[] out, int offset) {
+        int n = row.length;
+        switch (filter) {
+            case NONE:
+                System.arraycopy(row, 0, out, offset, n);
+                break;
+            case SUB:
+                System.arraycopy(row, 0, out, offset, bpp);
+                for (int i = bpp; i < n; i++) {
+                    out[offset + i] = (byte) (row[i] - row[i - bpp]);
+                }
+                break;
+            case UP:
+                if (previous == null) {
+                    System.arraycopy(row, 0, out, offset, n);
+                    break;
+                }
+                for (int i = 0; i < n; i++) {
+                    out[offset + i] = (byte) (row[i] - previous[i]);
+                }
+                break;
+            case AVERAGE:
+                for (int i = 0; i < n; i++) {
+                    int left = i < bpp ? 0 : row[i - bpp] & 0xFF;
+                    int up = previous == null ? 0 : previous[i] & 0xFF;
+                    out[offset + i] = (byte) (row[i] - ((left + up) >>> 1));
+                }
+                break;
+            case PAETH:
+            default:
+                for (int i = 0; i < n; i++) {
+                    int a = i < bpp ? 0 : row[i - bpp] & 0xFF;
+                    int b = previous == null ? 0 : previous[i] & 0xFF;
+                    int c = i < bpp || previous == null ? 0 : previous[i - bpp] & 0xFF;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a);
+                    int pb = Math.abs(p - b);
+                    int pc = Math.abs(p - c);
+                    int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                    out[offset + i] = (byte) (row[i] - predictor);
+                }
+        }
+    }
+
+    /**
+     * Checksum of two concatenated pieces of data, from checksums of the pieces (zlib's adler32_combine).
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= 2L * ADLER_BASE) sum2 -= 2L * ADLER_BASE;
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data) throws IOException {
+        byte[] head = new byte[8];
+        putInt(head, 0, data.length);
+        for (int i = 0; i < 4; i++) {
+            head[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(head, 4, 4);
+        crc.update(data);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(head);
+        out.write(data);
+        out.write(tail);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
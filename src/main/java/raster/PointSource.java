@@ -0,0 +1,114 @@
+package raster;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * The <code>PointSource</code> class represents a series of points stored outside of java heap arrays:
+ * in a <code>FloatBuffer</code>, a direct <code>ByteBuffer</code>, or a file mapped into memory.
+ * Points are stored as interleaved float32 coordinates {x1, y1, ... xN, yN}.
+ * <p>
+ * <code>RasterPlot</code> reads such points directly from the buffers, without copying them into
+ * heap arrays first (see <code>RasterPlot.putSource</code>).
+ */
+public class PointSource {
+
+    /**
+     * Size of a single mapping of a file. <code>MappedByteBuffer</code> can't be larger than 2GB,
+     * so larger files are mapped piece by piece.
+     */
+    static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final FloatBuffer[] segments;
+    private final long pointCount;
+
+    private PointSource(FloatBuffer[] segments) {
+        long count = 0;
+        for (int i = 0; i < segments.length; i++) {
+            FloatBuffer segment = segments[i].slice();
+            // trailing coordinate without a pair is ignored
+            segment.limit(segment.limit() & ~1);
+            segments[i] = segment;
+            count += segment.limit() / 2;
+        }
+        this.segments = segments;
+        this.pointCount = count;
+    }
+
+    /**
+     * Creates a source which reads points from the remaining elements of <code>xy</code>.
+     *
+     * @param xy buffer {x1, y1, ... xN, yN}
+     * @return new source
+     */
+    public static PointSource of(FloatBuffer xy) {
+        return new PointSource(new FloatBuffer[]{xy});
+    }
+
+    /**
+     * Creates a source which reads points from the remaining bytes of <code>xy</code>.
+     *
+     * @param xy    buffer of float32 values {x1, y1, ... xN, yN}
+     * @param order byte order of values in <code>xy</code>
+     * @return new source
+     */
+    public static PointSource of(ByteBuffer xy, ByteOrder order) {
+        return of(xy.duplicate().order(order).asFloatBuffer());
+    }
+
+    /**
+     * Maps a region of a file into memory and creates a source which reads points from it.
+     * Mapping stays valid after the channel is closed.
+     *
+     * @param channel  file channel
+     * @param position position of the region in the file, in bytes
+     * @param size     size of the region, in bytes
+     * @param order    byte order of values in the file
+     * @return new source
+     * @throws IOException if the file can't be mapped
+     */
+    public static PointSource map(FileChannel channel, long position, long size, ByteOrder order) throws IOException {
+        ArrayList<FloatBuffer> segments = new ArrayList<>();
+        long end = position + (size & ~7L);
+        for (long offset = position; offset < end; offset += MAX_SEGMENT_BYTES) {
+            long length = Math.min(MAX_SEGMENT_BYTES, end - offset);
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(order).asFloatBuffer());
+        }
+        return new PointSource(segments.toArray(new FloatBuffer[segments.size()]));
+    }
+
+    /**
+     * Maps a whole file into memory and creates a source which reads points from it.
+     *
+     * @param file  file of float32 values {x1, y1, ... xN, yN}
+     * @param order byte order of values in the file
+     * @return new source
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static PointSource map(Path file, ByteOrder order) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return map(channel, 0, channel.size(), order);
+        }
+    }
+
+    /**
+     * @return Number of points in this source.
+     */
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    FloatBuffer getSegment(int i) {
+        return segments[i];
+    }
+}
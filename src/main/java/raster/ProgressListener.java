@@ -0,0 +1,19 @@
+package raster;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Listener of progressive renders, see <code>RasterPlot.renderSolidProgressive</code>.
+ */
+public interface ProgressListener {
+
+    /**
+     * Called after each pass of a progressive render, from the thread which started the render.
+     * The plot is fully covered after every pass: pixels which were not computed yet are filled
+     * with colors of the nearest computed ones.
+     *
+     * @param plot plot plane image
+     * @param step distance between pixels computed so far; 1 means the render is complete
+     */
+    void passCompleted(BufferedImage plot, int step);
+}
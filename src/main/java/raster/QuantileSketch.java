@@ -0,0 +1,121 @@
+package raster;
+
+import java.util.Arrays;
+
+/**
+ * Streaming sketch of a distribution of float values, which answers quantile queries approximately
+ * using memory which grows only logarithmically with the number of values (a KLL-style compactor).
+ * <p>
+ * Values are kept in levels; a value at level <code>l</code> stands for <code>2^l</code> original values.
+ * When a level holds <code>capacity</code> values, it is sorted and every other value (starting from a
+ * random one of the first two) moves one level up, while the rest is dropped. Rank error of a quantile is
+ * about <code>sqrt(levels) / capacity</code> of the number of values. Sketches built over parts of the data
+ * can be merged. Compaction choices come from a generator with a fixed seed, so the result depends only on
+ * the order in which values and sketches are added. NaN values are ignored.
+ */
+final class QuantileSketch {
+
+    private final int capacity;
+    private float[][] levels = new float[0][];
+    private int[] sizes = new int[0];
+    private long random = 0x9E3779B97F4A7C15L;
+
+    /**
+     * @param capacity number of values a level holds before it is compacted, even
+     */
+    QuantileSketch(int capacity) {
+        if (capacity < 2 || capacity % 2 != 0) {
+            throw new IllegalArgumentException("Sketch capacity must be even and at least 2");
+        }
+        this.capacity = capacity;
+    }
+
+    void add(float value) {
+        if (value != value) {
+            return;
+        }
+        put(0, value);
+    }
+
+    /**
+     * Adds all values summarized by <code>other</code> to this sketch.
+     */
+    void merge(QuantileSketch other) {
+        for (int level = 0; level < other.levels.length; level++) {
+            for (int i = 0; i < other.sizes[level]; i++) {
+                put(level, other.levels[level][i]);
+            }
+        }
+    }
+
+    /**
+     * @param q quantile, 0 to 1
+     * @return approximate value of the quantile, NaN if the sketch is empty
+     */
+    float quantile(double q) {
+        int total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+        if (total == 0) {
+            return Float.NaN;
+        }
+        // sort values together with their weights
+        long[] items = new long[total];
+        int n = 0;
+        long weight = 0;
+        for (int level = 0; level < levels.length; level++) {
+            for (int i = 0; i < sizes[level]; i++) {
+                items[n++] = (long) sortableBits(levels[level][i]) << 8 | level;
+            }
+            weight += (long) sizes[level] << level;
+        }
+        Arrays.sort(items);
+        double rank = Math.max(0, Math.min(1, q)) * (weight - 1);
+        long seen = 0;
+        for (long item : items) {
+            seen += 1L << (item & 0xFF);
+            if (seen > rank) {
+                return fromSortableBits((int) (item >> 8));
+            }
+        }
+        return fromSortableBits((int) (items[total - 1] >> 8));
+    }
+
+    private void put(int level, float value) {
+        if (level >= levels.length) {
+            int from = levels.length;
+            levels = Arrays.copyOf(levels, level + 1);
+            sizes = Arrays.copyOf(sizes, level + 1);
+            for (int l = from; l <= level; l++) {
+                levels[l] = new float[capacity];
+            }
+        }
+        levels[level][sizes[level]++] = value;
+        if (sizes[level] == capacity) {
+            compact(level);
+        }
+    }
+
+    private void compact(int level) {
+        float[] values = levels[level];
+        Arrays.sort(values);
+        sizes[level] = 0;
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        for (int i = (int) (random & 1); i < capacity; i += 2) {
+            put(level + 1, values[i]);
+        }
+    }
+
+    // order-preserving mapping of floats to ints, so that values sort together with their levels as longs
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits < 0 ? bits ^ 0x7FFFFFFF : bits;
+    }
+
+    private static float fromSortableBits(int bits) {
+        return Float.intBitsToFloat(bits < 0 ? bits ^ 0x7FFFFFFF : bits);
+    }
+}
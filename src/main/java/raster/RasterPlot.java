@@ -6,23 +6,62 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * The <code>RasterPlot</code> class encapsulates such things as plot plane, data series, and coloring
  * rule for this data series.
  */
 
-public class RasterPlot {
+public class RasterPlot implements AutoCloseable {
 
     public enum LabelPosition {UPPER_LEFT, UPPER_RIGHT, CENTER, BOTTOM_LEFT, BOTTOM_RIGHT}
 
+    /**
+     * Transfer functions used to map hit counts of density rendering to colors.
+     */
+    public enum DensityTransfer {LINEAR, LOG, EQ_HIST}
+
+    /**
+     * Precision of coordinates of pixels in <code>renderSolid</code> and the other solid renders
+     * (<code>renderSolidIncremental</code>, <code>renderSolidAdaptive</code>, <code>renderSolidProgressive</code>
+     * and <code>renderSolidSupersampled</code>). <code>DOUBLE</code> computes coordinates from double precision
+     * bounds (see <code>setBounds(DoubleBounds)</code>) and colors them with the double forms of
+     * <code>ColoringRule.colorRow</code> and <code>ColoringRule.colorFunction</code>. Renders of points and
+     * scalar fields always use <code>float</code>.
+     */
+    public enum Precision {FLOAT, DOUBLE}
+
     private ArrayList<float[]> chunks;
-    private AtomicInteger pool = new AtomicInteger();
+    private ArrayList<FloatBuffer> sourceSegments = new ArrayList<>();
+    // work units of point rendering: unit i covers floats [workFrom[i], workTo[i]) of chunk workTarget[i],
+    // or of source segment (workTarget[i] - chunks.size()); if workTarget[i] is negative, it covers
+    // positions [workFrom[i], workTo[i]) of sorted points of chunk (-workTarget[i] - 1) in spatial index
+    private int[] workTarget = new int[0];
+    private int[] workFrom = new int[0];
+    private int[] workTo = new int[0];
+    private int workUnits;
+    private GridIndex spatialIndex;
+    private DataStats dataStats = new DataStats();
+    private WorkScheduler scheduler = new WorkScheduler();
     private int[] plotPixels;
 
     private BufferedImage plot;
@@ -36,9 +75,80 @@ public class RasterPlot {
     private Logger logger; // TODO : remove
 
     private ColoringRule coloringRule;
-    private Bounds bounds;
-
-    private ExecutorService threadPool = Executors.newFixedThreadPool(4);
+    private volatile Bounds bounds;
+    private volatile DoubleBounds preciseBounds; // exact bounds, while bounds are their rounded copy
+    private volatile Bounds preciseRounded;
+    private Precision precision = Precision.FLOAT;
+
+    private DensityTransfer densityTransfer = DensityTransfer.LOG;
+    private int densityColor = Color.BLACK.getRGB();
+    private int[][] densityBuffers; // per-worker hit counts, all zeros between renders
+    private AtomicIntegerArray densityShared; // hit counts of workers beyond the buffered ones, zeros between renders
+    private long densityBufferBudget = 256L << 20;
+    private int[] densityCounts;    // merged hit counts of the last density render
+    private int[][] densityHistograms;
+    private int[] densityLut;
+    private float[] densityCdf;
+    private AtomicInteger densityMax = new AtomicInteger();
+
+    private ScalarRule scalarRule;
+    private Palette palette = Palette.gradient(256, Color.BLACK.getRGB(), Color.WHITE.getRGB());
+    private float fieldLow = Float.NaN, fieldHigh = Float.NaN; // NaN for the extent of the field
+    private float[] field;          // values of the last field render
+    private final float[] fieldExtent = new float[2];
+    private float mapLow, mapHigh;  // range used by the current field mapping
+
+    private int adaptiveTileSize = 64;
+    private int chunkGrainSize = 1 << 16;
+
+    private int supersampling;
+    private boolean jitteredSampling;
+
+    private int progressiveStep;
+    private Bounds progressiveBounds;
+    private float[] progressiveSnapshot;
+    private volatile boolean progressiveAborted;
+
+    // rectangle of plot plane rendered by SOLID mode
+    private int regionX0, regionY0, regionX1, regionY1;
+    // bounds and rule of the last solid render, if plot plane was not changed since
+    private float[] solidBounds;
+    private ColoringRule solidRule;
+    private long solidRuleVersion;
+    private int[] previewPixels;
+    private int[] previewColumns;
+    private double previewOrigin, previewScale;
+
+    // pixel bounding box {minX, minY, maxX, maxY} of pixels not of color pixelBoxBack, kept by renders which
+    // track it; null if unknown, EMPTY_BOX if all pixels are of that color
+    private volatile int[] pixelBox;
+    private int pixelBoxBack;
+    // bounding box accumulated by workers of the current render, and the back color it is tracked for
+    private final int[] renderBox = new int[4];
+    private boolean renderBoxExact;
+    private int trackedBack;
+
+    private volatile BlockingQueue<float[]> streamQueue;
+    private ArrayList<Future<?>> streamFutures;
+    private ExecutorService streamPool; // stream workers block on the queue, so they don't take executor threads
+
+    private ExecutorService threadPool;
+    private boolean ownsThreadPool;
+    private PngWriter pngWriter = new PngWriter();
+    private RenderCache renderCache;
+    private final CopyOnWriteArrayList<RenderListener> renderListeners = new CopyOnWriteArrayList<>();
+
+    private ExecutorService asyncDriver;
+    private final Object asyncLock = new Object(); // guards asyncDriver, which is used while renders hold the plot
+    private StopSignal asyncSignal;   // stop signal of the async render which currently holds the plot
+    private StopSignal renderSignal;  // stop signal of the current render pass
+    private volatile boolean workAbandoned; // whether a worker of the current pass left work undone
+    private boolean renderStopped;
+    private boolean antialiasedLines; // whether the current polyline render blends segments
+    // buffer of rows rawY0 .. rawY1 - 1 of raw export or import, starting at the first of them
+    private ByteBuffer rawBuffer;
+    private RawFormat rawFormat;
+    private int rawY0, rawY1;
 
     /**
      * Constructor for <code>RasterPlot</code> class.
@@ -109,592 +219,3421 @@ public class RasterPlot {
      * @return this
      */
     public synchronized RasterPlot putChunk(float[] xy) {
-        if (xy.length % 2 == 0) this.chunks.add(xy);
+        if (xy.length % 2 == 0) {
+            this.chunks.add(xy);
+            try {
+                dataStats.add(FloatBuffer.wrap(xy), executor(), maxThreadCount);
+            } catch (ExecutionException e) {
+                // summarized later, when bounds are computed
+                dataStats.defer(FloatBuffer.wrap(xy));
+            }
+            if (spatialIndex != null) {
+                try {
+                    spatialIndex.add(chunks, false, executor(), maxThreadCount);
+                } catch (ExecutionException e) {
+                    // renders are correct without index, only slower
+                    logger.warning("Spatial index dropped: " + e.getCause());
+                    spatialIndex = null;
+                }
+            }
+        }
         return this;
     }
 
     /**
-     * Renders all chunks that currently are in render chain, drawing
-     * each point according to current coloring rule and bounds.
+     * This function puts a source of points to a render chain. Points are read directly from
+     * the source on every render, they are not copied into the heap.
      *
+     * @param source source of points
      * @return this
      */
-    public RasterPlot renderChunks() throws ExecutionException {
-        render(this.chunks.size() < maxThreadCount ? this.chunks.size() : maxThreadCount,
-                RenderMode.CHUNKS);
+    public synchronized RasterPlot putSource(PointSource source) {
+        for (int i = 0; i < source.getSegmentCount(); i++) {
+            this.sourceSegments.add(source.getSegment(i));
+            dataStats.defer(source.getSegment(i));
+        }
         return this;
     }
 
     /**
-     * Fills whole plot plane with colors determined by <code>ColoringRule</code>
+     * Computes bounds which contain all points of render chain. Extent of chunks is maintained as they
+     * are put into render chain (each chunk is scanned in parallel by <code>putChunk</code>), so this is
+     * cheap; point sources are scanned when bounds are computed for the first time after they were put.
      *
-     * @return this
+     * @return smallest bounds containing all points, or <code>null</code> if render chain has no points
      */
-    public RasterPlot renderSolid() throws ExecutionException {
-        render(maxThreadCount, RenderMode.SOLID);
-        return this;
+    public synchronized Bounds computeDataBounds() throws ExecutionException {
+        dataStats.flush(executor(), maxThreadCount);
+        float[] extent = dataStats.extent();
+        if (!(extent[0] <= extent[2] && extent[1] <= extent[3])) {
+            return null;
+        }
+        return new Bounds(extent);
     }
 
     /**
-     * Clears render chain of RasterPlot.
+     * Computes bounds which contain the middle part of points of render chain, ignoring outliers: along each
+     * axis, bounds span from quantile <code>low</code> to quantile <code>high</code> of point coordinates, e.g.
+     * 0.001 and 0.999. Quantiles are approximate, see <code>trackDataQuantiles</code>, which must be called first.
      *
-     * @return this
+     * @param low  Lower quantile, 0 to 1.
+     * @param high Upper quantile, 0 to 1.
+     * @return bounds, or <code>null</code> if render chain has no points
      */
-    public RasterPlot clearData() {
-        this.chunks.clear();
-        return this;
+    public synchronized Bounds computeDataBounds(double low, double high) throws ExecutionException {
+        if (dataStats.sketchCapacity() == 0) {
+            throw new IllegalStateException("Quantiles are not tracked, see trackDataQuantiles");
+        }
+        dataStats.flush(executor(), maxThreadCount);
+        float[] quantiles = dataStats.quantiles(low, high);
+        if (!(quantiles[0] <= quantiles[2] && quantiles[1] <= quantiles[3])) {
+            return null;
+        }
+        return new Bounds(quantiles);
     }
 
     /**
-     * Clears plot with color, specified in field <code>ColoringRule.backColor</code> of current
-     * coloring rule.
+     * Starts keeping quantile sketches of point coordinates, which are required by
+     * <code>computeDataBounds(low, high)</code>. Points already in render chain are sketched when quantiles are
+     * computed for the first time; new chunks are sketched by <code>putChunk</code>. Rank error of quantiles is
+     * usually within <code>1 / sketchSize</code> of the number of points, and the sketches take about
+     * <code>sketchSize * log2(points / sketchSize)</code> floats each.
      *
+     * @param sketchSize Size of a level of a sketch, an even number; 0 stops keeping sketches.
      * @return this
      */
-    public RasterPlot clearPlot() throws ExecutionException {
-        render(maxThreadCount, RenderMode.CLEAR);
+    public synchronized RasterPlot trackDataQuantiles(int sketchSize) {
+        dataStats.reset(sketchSize);
+        for (float[] chunk : chunks) {
+            dataStats.defer(FloatBuffer.wrap(chunk));
+        }
+        for (FloatBuffer segment : sourceSegments) {
+            dataStats.defer(segment);
+        }
         return this;
     }
 
     /**
-     * Sets new coloring rule.
+     * Sets bounds to <code>computeDataBounds()</code>, extended by half a pixel on every side, so that
+     * all points are visible. Does nothing if render chain has no points.
      *
-     * @param rule New coloring rule
      * @return this
      */
-    public RasterPlot setColoringRule(ColoringRule rule) {
-        this.coloringRule = rule;
-        return this;
+    public synchronized RasterPlot fitBoundsToData() throws ExecutionException {
+        return fitBounds(computeDataBounds());
     }
 
     /**
-     * @return Current coloring rule.
+     * Sets bounds to <code>computeDataBounds(low, high)</code>, extended by half a pixel on every side.
+     * Does nothing if render chain has no points.
+     *
+     * @param low  Lower quantile, 0 to 1.
+     * @param high Upper quantile, 0 to 1.
+     * @return this
      */
-    public ColoringRule getColoringRule() {
-        return this.coloringRule;
+    public synchronized RasterPlot fitBoundsToData(double low, double high) throws ExecutionException {
+        return fitBounds(computeDataBounds(low, high));
+    }
+
+    private RasterPlot fitBounds(Bounds data) {
+        if (data == null) {
+            return this;
+        }
+        // points exactly on bounds are not drawn, and a single point still needs some area around it
+        float padX = data.getSpanX() > 0 ? data.getSpanX() / (2 * Math.max(1, resolution.width - 1)) : 0.5f;
+        float padY = data.getSpanY() > 0 ? data.getSpanY() / (2 * Math.max(1, resolution.height - 1)) : 0.5f;
+        return setBounds(new Bounds(data.getMinX() - padX, data.getMinY() - padY,
+                data.getMaxX() + padX, data.getMaxY() + padY));
     }
 
     /**
-     * Sets new bounds of the plot plane.
+     * Builds spatial index over all chunks of render chain: a uniform grid of
+     * <code>cellsPerAxis x cellsPerAxis</code> cells over the extent of their points. Once built,
+     * <code>renderChunks</code> and <code>renderDensity</code> visit only points of the cells which
+     * intersect current bounds, when that is a small part of the data. The index is built in parallel,
+     * and kept up to date by <code>putChunk</code>, which indexes new chunks once they add up to
+     * <code>max(cellsPerAxis * cellsPerAxis, 65536)</code> points; chunks put since then are rendered in full.
+     * Its extent is not changed by new chunks, so points which are far outside of it make it less efficient;
+     * build the index again in that case.
+     * <p>
+     * Chunks are indexed in groups of at least that many points, and each group takes one int per point and
+     * one int per cell, so the index takes up to two ints per point, plus <code>cellsPerAxis * cellsPerAxis</code>
+     * ints for the last group. Point sources are not indexed.
      *
-     * @param bounds new bounds
+     * @param cellsPerAxis Number of grid cells along each axis, 1 to 4096.
      * @return this
+     * @throws IllegalArgumentException if <code>cellsPerAxis</code> is out of range.
      */
-    public RasterPlot setBounds(Bounds bounds) {
-        this.bounds = bounds;
+    public synchronized RasterPlot buildSpatialIndex(int cellsPerAxis) throws ExecutionException {
+        if (cellsPerAxis < 1 || cellsPerAxis > GridIndex.MAX_CELLS_PER_AXIS) {
+            throw new IllegalArgumentException("Number of cells must be between 1 and " + GridIndex.MAX_CELLS_PER_AXIS);
+        }
+        float[] extent = GridIndex.extent(chunks, executor(), maxThreadCount);
+        if (!(extent[0] <= extent[2] && extent[1] <= extent[3])) {
+            extent = bounds.getAll();
+        }
+        GridIndex index = new GridIndex(extent[0], extent[1], extent[2], extent[3], cellsPerAxis, cellsPerAxis);
+        index.add(chunks, true, executor(), maxThreadCount);
+        spatialIndex = index;
         return this;
     }
 
-    public RasterPlot setBounds(Rectangle coords) {
-        int x1 = coords.x;
-        int x2 = Math.max(0, coords.x + coords.width);
-        int y1 = coords.y;
-        int y2 = Math.max(0, coords.y + coords.height);
-        return setBounds(boxToBounds(new int[]{
-                Math.min(x1, x2),
-                Math.min(y1, y2),
-                Math.max(x1, x2),
-                Math.max(y1, y2)
-        }));
+    /**
+     * Removes spatial index built by <code>buildSpatialIndex</code>.
+     *
+     * @return this
+     */
+    public synchronized RasterPlot dropSpatialIndex() {
+        spatialIndex = null;
+        return this;
     }
 
     /**
-     * @return Current bounds of plot plane.
+     * @return <code>true</code> if this plot has a spatial index over its chunks.
      */
-    public Bounds getBounds() {
-        return this.bounds;
+    public boolean hasSpatialIndex() {
+        return spatialIndex != null;
     }
 
     /**
-     * @return Current resolution (in plotPixels).
+     * Renders all chunks that currently are in render chain, drawing
+     * each point according to current coloring rule and bounds.
+     *
+     * @return this
      */
-    public Dimension getResolution() {
-        return resolution;
+    public synchronized RasterPlot renderChunks() throws ExecutionException {
+        int workSize = preparePointWork();
+        render(workSize < maxThreadCount ? workSize : maxThreadCount, RenderMode.CHUNKS);
+        return this;
     }
 
     /**
-     * Sets new resolution of plot plane (in plotPixels).
+     * Renders all chunks that currently are in render chain as polylines: consecutive points of each chunk
+     * (and of each point source) are joined by line segments, clipped to current bounds. A point with a
+     * <code>NaN</code> coordinate breaks the line. Pixels of a segment are colored by <code>ColoringRule</code>
+     * at the coordinates of the segment which pass through them.
+     * <p>
+     * Chunks are split between threads just like in <code>renderChunks</code>, but spatial index is not used,
+     * as segments need points in their original order.
      *
-     * @param resolution New resolution.
+     * @param antialiased if <code>true</code>, segments are drawn with Wu's algorithm, blending two pixels
+     *                    across the line by coverage; otherwise each segment is a one pixel thick DDA line.
+     *                    Blending is not atomic, so where segments drawn by different threads cross, one of
+     *                    them may win.
      * @return this
      */
-    public RasterPlot setResolution(Dimension resolution) {
-        this.resolution = resolution;
-        reallocImage();
+    public synchronized RasterPlot renderPolylines(boolean antialiased) throws ExecutionException {
+        int workSize = preparePointWork(false);
+        antialiasedLines = antialiased;
+        render(workSize < maxThreadCount ? workSize : maxThreadCount, RenderMode.POLYLINES);
         return this;
     }
 
     /**
-     * Returns current <code>utils.Logger</code> instance.
+     * Renders all chunks that currently are in render chain as polylines, without anti-aliasing
+     * (see <code>renderPolylines(boolean)</code>).
      *
-     * @return <code>utils.Logger</code> instance.
+     * @return this
      */
-    public Logger getLogger() {
-        return logger;
+    public synchronized RasterPlot renderPolylines() throws ExecutionException {
+        return renderPolylines(false);
     }
 
     /**
-     * Sets new <code>utils.Logger</code> instance, which can be used to obtain information about
-     * current state, errors, and warnings.
+     * Fills whole plot plane with colors determined by <code>ColoringRule</code>. If a render cache is set
+     * and holds this view, its pixels are copied instead (see <code>setRenderCache</code>).
      *
-     * @param logger New <code>utils.Logger</code> instance.
      * @return this
      */
-    public RasterPlot setLogger(Logger logger) {
-        this.logger = logger;
+    public synchronized RasterPlot renderSolid() throws ExecutionException {
+        RenderCache.Key key = cacheKey(coloringRule, coloringRule.getVersion(), RenderMode.SOLID);
+        RenderCache.Entry cached = key == null ? null : renderCache.get(key);
+        if (cached != null) {
+            System.arraycopy((int[]) cached.buffer, 0, plotPixels, 0, plotPixels.length);
+            pixelBox = null;
+            renderStopped = false;
+            plot.flush();
+        } else {
+            renderRegion(0, 0, resolution.width, resolution.height);
+            if (renderStopped) {
+                return this;
+            }
+            if (key != null) {
+                renderCache.put(key, plotPixels.clone(), null);
+            }
+        }
+        rememberSolid();
         return this;
     }
 
     /**
-     * Returns number of threads this instance of <code>RasterPlot</code> can use.
+     * Same as <code>renderSolid</code>, but runs in background (see <code>renderSolidAsync(long, TimeUnit)</code>).
      *
-     * @return Number of threads
+     * @return future, which completes with this plot
      */
-    public int getMaxThreadCount() {
-        return maxThreadCount;
+    public CompletableFuture<RasterPlot> renderSolidAsync() {
+        return renderAsync(-1, this::renderSolid);
     }
 
     /**
-     * Set maximum number of threads to specified value.
+     * Same as <code>renderSolid</code>, but runs in background: asynchronous renders of a plot are run one after
+     * another, in the order they are requested, by a thread of the plot, so that the caller does not wait.
+     * <p>
+     * Cancelling the returned future stops the render: if it has not started yet, it is skipped, otherwise
+     * render threads stop at the next row. When the time budget, counted from this call, runs out, the render
+     * stops the same way, and the future completes with whatever has been drawn so far;
+     * <code>isRenderStopped</code> tells whether the render was complete.
      *
-     * @param maxThreadCount new thread limit.
-     * @return this
+     * @param budget Time budget, or a negative number for none.
+     * @param unit   Unit of <code>budget</code>.
+     * @return future, which completes with this plot
      */
-    public RasterPlot setMaxThreadCount(int maxThreadCount) {
-        this.maxThreadCount = maxThreadCount;
-        return this;
+    public CompletableFuture<RasterPlot> renderSolidAsync(long budget, TimeUnit unit) {
+        return renderAsync(unit.toNanos(budget), this::renderSolid);
     }
 
     /**
-     * @return plot plane image.
+     * Same as <code>renderChunks</code>, but runs in background (see <code>renderSolidAsync(long, TimeUnit)</code>).
+     * A stopped render leaves a part of the points undrawn.
+     *
+     * @param budget Time budget, or a negative number for none.
+     * @param unit   Unit of <code>budget</code>.
+     * @return future, which completes with this plot
      */
-    public BufferedImage getPlot() {
-        return plot;
+    public CompletableFuture<RasterPlot> renderChunksAsync(long budget, TimeUnit unit) {
+        return renderAsync(unit.toNanos(budget), this::renderChunks);
     }
 
     /**
-     * Saves current plot image to specified file.
+     * Same as <code>renderChunks</code>, but runs in background (see <code>renderSolidAsync(long, TimeUnit)</code>).
      *
-     * @param filename file to be written
-     * @param format   image format
-     * @return this
+     * @return future, which completes with this plot
      */
-    public RasterPlot saveToFile(String filename, String format) throws IOException {
-        FileOutputStream out = new FileOutputStream(filename);
-        ImageIO.write(this.plot, format, out);
-        out.close();
-        return this;
+    public CompletableFuture<RasterPlot> renderChunksAsync() {
+        return renderAsync(-1, this::renderChunks);
     }
 
     /**
-     * Draws a text string at the specified location on plot, using current <code>Font</code> and <code>Color</code>, specified for
-     * this instance of <code>RasterPlot</code>. Default font is Times New Roman - size 20, default color is white.
-     * Might be very slow for huge images.
+     * Same as <code>clearPlot</code>, but runs in background (see <code>renderSolidAsync(long, TimeUnit)</code>).
+     *
+     * @return future, which completes with this plot
+     */
+    public CompletableFuture<RasterPlot> clearPlotAsync() {
+        return renderAsync(-1, this::clearPlot);
+    }
+
+    /**
+     * @return <code>true</code> if the last render pass was stopped before it was complete, because it was
+     * cancelled, ran out of its time budget or its thread was interrupted.
+     */
+    public synchronized boolean isRenderStopped() {
+        return renderStopped;
+    }
+
+    private CompletableFuture<RasterPlot> renderAsync(long budgetNanos, AsyncRender body) {
+        StopSignal signal = new StopSignal(budgetNanos);
+        CompletableFuture<RasterPlot> result = new CompletableFuture<>();
+        result.whenComplete((plot, e) -> {
+            if (result.isCancelled()) {
+                signal.stop();
+            }
+        });
+        asyncDriver().execute(() -> {
+            if (result.isDone()) {
+                // cancelled before it started
+                return;
+            }
+            try {
+                synchronized (this) {
+                    asyncSignal = signal;
+                    try {
+                        body.run();
+                    } finally {
+                        asyncSignal = null;
+                    }
+                }
+                result.complete(this);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private ExecutorService asyncDriver() {
+        synchronized (asyncLock) {
+            if (asyncDriver == null) {
+                asyncDriver = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "raster-async-render");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return asyncDriver;
+        }
+    }
+
+    /**
+     * Fills whole plot plane with colors determined by <code>ColoringRule</code>, skipping evaluation of
+     * uniform regions (Mariani-Silver subdivision). The plane is split into square tiles, which are handed out
+     * to render threads as they become free. For every tile, its border is evaluated first; if the whole
+     * border is of a single color, the tile is filled with this color, otherwise it is split in four and the
+     * same is done for each part, down to parts small enough to evaluate fully.
+     * <p>
+     * The result is exact only if no feature of the picture fits entirely inside a region with uniform border.
+     * For rules which report <code>isSubdivisionSafe() == false</code>, this is the same as <code>renderSolid</code>.
      *
-     * @param text     Text string to be drawn
-     * @param position Label position
      * @return this
      */
-    public RasterPlot drawLabel(String text, LabelPosition position) {
-        Graphics2D g2d = plot.createGraphics();
-        g2d.setFont(labelFont);
-        g2d.setColor(labelColor);
-        int strWidth = g2d.getFontMetrics().stringWidth(text);
-        int strHeight = g2d.getFontMetrics().getHeight();
-        int x, y;
-        switch (position) {
-            case BOTTOM_LEFT:
-                x = 0;
-                y = resolution.height - strHeight;
-                break;
-            case BOTTOM_RIGHT:
-                x = resolution.width - strWidth;
-                y = resolution.height - strHeight;
-                break;
-            case CENTER:
-                x = (resolution.width - strWidth) / 2;
-                y = (resolution.height - strHeight) / 2;
-                break;
-            case UPPER_RIGHT:
-                x = resolution.width - strWidth;
-                y = strHeight;
-                break;
-            case UPPER_LEFT:
-            default:
-                x = 0;
-                y = strHeight;
+    public synchronized RasterPlot renderSolidAdaptive() throws ExecutionException {
+        if (!coloringRule.isSubdivisionSafe()) {
+            return renderSolid();
         }
-        g2d.drawString(text, x, y);
+        render(maxThreadCount, RenderMode.ADAPTIVE);
+        rememberSolid();
         return this;
     }
 
     /**
-     * Draws a text string at the specified location on plot, using current <code>Font</code> and <code>Color</code>, specified for
-     * this instance of <code>RasterPlot</code>. Default font is Times New Roman - size 20, default color is white.
-     * Might be very slow for huge images.
+     * Fills whole plot plane with colors determined by <code>ColoringRule</code> in several passes, from coarse
+     * to fine: first every 8th pixel of every 8th row is computed, then every 4th, every 2nd, and finally all the
+     * rest. Pixels computed by previous passes are not computed again. Until it is computed, each pixel shows the
+     * color of the nearest computed pixel above and to the left, so the whole plane is covered after every pass.
+     * <p>
+     * The render stops early, without completing the current pass, if bounds are changed while it runs;
+     * this can be checked with <code>isProgressiveRenderAborted</code>.
      *
-     * @param text Text string to be drawn
-     * @param x    x-coordinate in plot plane coordinates
-     * @param y    y-coordinate in plot plane coordinates
+     * @param listener Listener, which is called after each completed pass.
      * @return this
      */
-    public RasterPlot drawLabel(String text, float x, float y) {
-        Point pixelCoord = planeToPixel(x, y);
-        Graphics2D g2d = plot.createGraphics();
-        g2d.setColor(labelColor);
-        g2d.setFont(labelFont);
-        g2d.drawString(text, pixelCoord.x, pixelCoord.y);
+    public synchronized RasterPlot renderSolidProgressive(ProgressListener listener) throws ExecutionException {
+        progressiveBounds = bounds;
+        progressiveSnapshot = bounds.getAll();
+        progressiveAborted = false;
+        for (int step : PROGRESSIVE_STEPS) {
+            progressiveStep = step;
+            render(maxThreadCount, RenderMode.PROGRESSIVE);
+            if (progressiveAborted) {
+                return this;
+            }
+            if (listener != null) {
+                listener.passCompleted(plot, step);
+            }
+        }
+        rememberSolid();
         return this;
     }
 
     /**
-     * Get current label font.
-     *
-     * @return Font
+     * @return <code>true</code> if the last <code>renderSolidProgressive</code> was stopped because bounds changed.
      */
-    public Font getLabelFont() {
-        return labelFont;
+    public boolean isProgressiveRenderAborted() {
+        return progressiveAborted;
     }
 
     /**
-     * Set new font for labels.
+     * Fills whole plot plane with colors determined by <code>ColoringRule</code>, anti-aliased by supersampling:
+     * the rule is evaluated at <code>samples x samples</code> points spread over each pixel, and the pixel gets
+     * the average of their colors (each ARGB channel is averaged separately). With <code>jittered</code> set,
+     * every point is randomly moved within its cell of the grid, which turns aliasing patterns into noise;
+     * jitter is deterministic, so the same plot is rendered the same way every time.
+     * <p>
+     * Regular grids are evaluated with <code>ColoringRule.colorRow</code>, jittered ones point by point.
      *
-     * @param labelFont - new Font
+     * @param samples  Number of samples along each axis of a pixel, 1 to 16.
+     * @param jittered Whether to jitter sample points.
      * @return this
      */
-    public RasterPlot setLabelFont(Font labelFont) {
-        this.labelFont = labelFont;
+    public synchronized RasterPlot renderSolidSupersampled(int samples, boolean jittered) throws ExecutionException {
+        if (samples < 1 || samples > MAX_SAMPLES) {
+            throw new IllegalArgumentException("Number of samples must be between 1 and " + MAX_SAMPLES);
+        }
+        supersampling = samples;
+        jitteredSampling = jittered;
+        render(maxThreadCount, RenderMode.SUPERSAMPLED);
         return this;
     }
 
     /**
-     * Get current label color.
-     *
-     * @return Color
+     * @return Size of tiles used by <code>renderSolidAdaptive</code>, in pixels.
      */
-    public Color getLabelColor() {
-        return labelColor;
+    public int getAdaptiveTileSize() {
+        return adaptiveTileSize;
     }
 
     /**
-     * Set new label Color.
+     * Sets size of tiles used by <code>renderSolidAdaptive</code>. Larger tiles allow to skip more evaluations,
+     * but may miss more features of the picture.
      *
-     * @param labelColor new color
-     * @return this;
+     * @param adaptiveTileSize New tile size, in pixels.
+     * @return this
      */
-    public RasterPlot setLabelColor(Color labelColor) {
-        this.labelColor = labelColor;
+    public RasterPlot setAdaptiveTileSize(int adaptiveTileSize) {
+        this.adaptiveTileSize = adaptiveTileSize;
         return this;
     }
 
-    public void drawBox(int[] rect, int color) {
-        int xSize = resolution.width;
-        int ySize = resolution.height;
-        for (int i = 0; i < ySize; i++) {
-            //plotPixels.put(rect[0] + i*xSize, color);
-            plotPixels[rect[0] + i * xSize] = color;
-            //plotPixels.put(rect[2] + i*xSize, color);
-            plotPixels[rect[2] + i * xSize] = color;
+    /**
+     * Same as <code>renderSolid</code>, but reuses the result of the previous solid render if the plot plane was
+     * only moved since then: if bounds were translated by a whole number of pixels at the same scale (and neither
+     * coloring rule nor resolution changed), existing pixels are shifted in place and only the newly exposed strips
+     * are computed. Otherwise the whole plot plane is rendered.
+     * <p>
+     * Coloring rule is compared by identity and version, so a rule changed in place has to be invalidated
+     * (see <code>ColoringRule.invalidate</code>).
+     * Shifted pixels may differ from freshly computed ones by floating point rounding of coordinates.
+     *
+     * @return this
+     */
+    public synchronized RasterPlot renderSolidIncremental() throws ExecutionException {
+        float[] previous = solidBounds;
+        // shifts are computed from float bounds, which can't tell deep zoom views apart
+        if (precision == Precision.DOUBLE || previous == null || solidRule != coloringRule || solidRuleVersion != coloringRule.getVersion()) {
+            return renderSolid();
         }
-        for (int i = 0; i < xSize; i++) {
-            //plotPixels.put(i + rect[1]*xSize, color);
-            plotPixels[i + rect[1] * xSize] = color;
-            //plotPixels.put(i + rect[3]*xSize, color);
-            plotPixels[i + rect[3] * xSize] = color;
+        int w = resolution.width;
+        int h = resolution.height;
+        float spanX = previous[2] - previous[0];
+        float spanY = previous[3] - previous[1];
+        // a change of scale moves the far edge of the plot by the relative change times the size
+        if (Math.abs(bounds.getSpanX() - spanX) * w > PAN_TOLERANCE * Math.abs(spanX) ||
+                Math.abs(bounds.getSpanY() - spanY) * h > PAN_TOLERANCE * Math.abs(spanY)) {
+            return renderSolid();
         }
+        // pixel (x, y) of the new plane is pixel (x + dx, y + dy) of the previous one
+        double dx = (bounds.getMinX() - previous[0]) / getScaleX();
+        double dy = (bounds.getMinY() - previous[1]) / getScaleY();
+        int shiftX = (int) Math.round(dx);
+        int shiftY = (int) Math.round(dy);
+        if (Math.abs(dx - shiftX) > PAN_TOLERANCE || Math.abs(dy - shiftY) > PAN_TOLERANCE ||
+                Math.abs(shiftX) >= w || Math.abs(shiftY) >= h) {
+            return renderSolid();
+        }
+        shiftPixels(shiftX, shiftY);
+        // newly exposed rows, then newly exposed parts of the remaining rows
+        int rowsFrom = shiftY > 0 ? h - shiftY : 0;
+        int rowsTo = shiftY > 0 ? h : -shiftY;
+        if (rowsFrom < rowsTo) {
+            renderRegion(0, rowsFrom, w, rowsTo);
+        }
+        int columnsFrom = shiftX > 0 ? w - shiftX : 0;
+        int columnsTo = shiftX > 0 ? w : -shiftX;
+        if (columnsFrom < columnsTo) {
+            renderRegion(columnsFrom, shiftY > 0 ? 0 : -shiftY, columnsTo, shiftY > 0 ? h - shiftY : h);
+        }
+        rememberSolid();
+        return this;
     }
 
-    public boolean applyBoundingBox(double applyThreshold) {
-        return applyBoundingBox(applyThreshold, coloringRule.getBackColor());
-    }
-
-    public boolean applyBoundingBox(double applyThreshold, int backColor) {
-        Bounds newBounds = computeBoundingBox(backColor);
-        if (newBounds.getSpanY() / bounds.getSpanY() > applyThreshold ||
-                newBounds.getSpanX() / bounds.getSpanX() > applyThreshold) {
-            bounds = newBounds;
-            return true;
+    /**
+     * Fills plot plane with a fast approximation of <code>renderSolid</code>, made by resampling the result of
+     * the previous solid render to current bounds (nearest neighbour). Parts of the plane which were not
+     * visible before are filled with back color of current coloring rule. Meant to be shown as a preview
+     * while zooming, before calling <code>renderSolid</code> to refine it. Does nothing if the plot plane
+     * was changed by something else than a solid render since then.
+     *
+     * @return this
+     */
+    public synchronized RasterPlot renderZoomPreview() throws ExecutionException {
+        float[] previous = solidBounds;
+        if (previous == null) {
+            return this;
         }
-        return false;
+        int w = resolution.width;
+        if (previewPixels == null || previewPixels.length != plotPixels.length) {
+            previewPixels = new int[plotPixels.length];
+        }
+        System.arraycopy(plotPixels, 0, previewPixels, 0, plotPixels.length);
+        // the same mapping of pixels to coordinates as in Plotter.renderSolid
+        double oldScaleX = (previous[2] - previous[0]) / resolution.getWidth();
+        double oldScaleY = (previous[3] - previous[1]) / resolution.getHeight();
+        previewColumns = new int[w];
+        for (int x = 0; x < w; x++) {
+            previewColumns[x] = (int) Math.floor((bounds.getMinX() + x * getScaleX() - previous[0]) / oldScaleX);
+        }
+        previewOrigin = (bounds.getMinY() - previous[1]) / oldScaleY;
+        previewScale = getScaleY() / oldScaleY;
+        render(maxThreadCount, RenderMode.ZOOM_PREVIEW);
+        solidBounds = null;
+        return this;
     }
 
-    public Bounds computeAndDrawBoundingBox(int boxColor) {
-        int[] box = computePixelBoundingBox();
-        drawBox(box, boxColor);
-        return boxToBounds(box);
+    /**
+     * Renders rectangle [x0, x1) x [y0, y1) of plot plane, as <code>renderSolid</code> does.
+     */
+    private void renderRegion(int x0, int y0, int x1, int y1) throws ExecutionException {
+        regionX0 = x0;
+        regionY0 = y0;
+        regionX1 = x1;
+        regionY1 = y1;
+        render(maxThreadCount, RenderMode.SOLID);
     }
 
-    public Bounds computeBoundingBox() {
-        return computeBoundingBox(coloringRule.getBackColor());
+    private void rememberSolid() {
+        solidBounds = bounds.getAll();
+        solidRule = coloringRule;
+        solidRuleVersion = coloringRule.getVersion();
     }
 
-    public Bounds computeBoundingBox(int backColor) {
-        return boxToBounds(computePixelBoundingBox(backColor));
+    /**
+     * Moves pixels in place, so that pixel (x, y) gets the value of pixel (x + dx, y + dy).
+     * Pixels which have no source keep their old values.
+     */
+    private void shiftPixels(int dx, int dy) {
+        int w = resolution.width;
+        int h = resolution.height;
+        int length = w - Math.abs(dx);
+        int dstX = dx > 0 ? 0 : -dx;
+        int srcX = dx > 0 ? dx : 0;
+        // walk rows in the direction which never overwrites a row before it is copied
+        int from = dy > 0 ? 0 : h - 1;
+        int step = dy > 0 ? 1 : -1;
+        for (int y = from; y >= 0 && y < h; y += step) {
+            int srcY = y + dy;
+            if (srcY >= 0 && srcY < h) {
+                System.arraycopy(plotPixels, srcY * w + srcX, plotPixels, y * w + dstX, length);
+            }
+        }
     }
 
-    public int[] computePixelBoundingBox() {
-        return computePixelBoundingBox(coloringRule.getBackColor());
+    /**
+     * Renders all chunks that currently are in render chain as a density plot: every pixel is colored
+     * according to the number of points that hit it, using current density transfer function. Pixels with
+     * no hits get back color of current coloring rule, the densest pixels get density color.
+     * <p>
+     * Render threads count hits in their own buffers of the size of the plot, as many of them as fit into
+     * density buffer budget (see <code>setDensityBufferBudget</code>); the rest of the threads count hits in
+     * a single shared buffer with atomic increments. Buffers are merged in parallel afterwards. Buffers are
+     * kept between renders, so at most <code>budget</code> bytes, plus two more buffers of
+     * <code>width * height</code> ints, are taken.
+     *
+     * @return this
+     */
+    public synchronized RasterPlot renderDensity() throws ExecutionException {
+        int workSize = preparePointWork();
+        int threadCount = workSize < maxThreadCount ? workSize : maxThreadCount;
+        int size = resolution.width * resolution.height;
+        int buffered = (int) Math.min(threadCount, densityBufferBudget / (4L * size));
+        if (densityBuffers == null || densityBuffers.length != buffered) {
+            densityBuffers = null; // let old buffers go before allocating new ones
+            densityBuffers = new int[buffered][size];
+        }
+        if (buffered < threadCount) {
+            if (densityShared == null) {
+                densityShared = new AtomicIntegerArray(size);
+            }
+        } else {
+            densityShared = null;
+        }
+        if (densityCounts == null) {
+            densityCounts = new int[size];
+        }
+        render(threadCount, RenderMode.DENSITY);
+        if (renderStopped) {
+            return this;
+        }
+        densityMax.set(0);
+        render(maxThreadCount, RenderMode.DENSITY_MERGE);
+        if (renderStopped) {
+            return this;
+        }
+        return toneMapDensity();
+    }
+
+    /**
+     * Recolors the result of last <code>renderDensity</code> call, using current density transfer function,
+     * density color and back color, without counting hits again.
+     *
+     * @return this
+     */
+    public RasterPlot toneMapDensity() throws ExecutionException {
+        if (densityCounts == null) {
+            return this;
+        }
+        densityLut = buildDensityLut(coloringRule.getBackColor(), densityColor);
+        if (densityTransfer == DensityTransfer.EQ_HIST) {
+            if (densityHistograms == null || densityHistograms.length != maxThreadCount) {
+                densityHistograms = new int[maxThreadCount][DENSITY_HISTOGRAM_SIZE];
+            }
+            render(maxThreadCount, RenderMode.DENSITY_HISTOGRAM);
+            densityCdf = buildDensityCdf(densityHistograms);
+        }
+        render(maxThreadCount, RenderMode.DENSITY_TONE_MAP);
+        return this;
+    }
+
+    /**
+     * @return Current density transfer function.
+     */
+    public DensityTransfer getDensityTransfer() {
+        return densityTransfer;
+    }
+
+    /**
+     * Sets transfer function, which maps hit counts to colors in <code>renderDensity</code>.
+     *
+     * @param densityTransfer New transfer function.
+     * @return this
+     */
+    public RasterPlot setDensityTransfer(DensityTransfer densityTransfer) {
+        this.densityTransfer = densityTransfer;
+        return this;
+    }
+
+    /**
+     * @return Color of the densest pixels in <code>renderDensity</code>.
+     */
+    public int getDensityColor() {
+        return densityColor;
+    }
+
+    /**
+     * Sets color of the densest pixels in <code>renderDensity</code> (ARGB).
+     *
+     * @param densityColor New color.
+     * @return this
+     */
+    public RasterPlot setDensityColor(int densityColor) {
+        this.densityColor = densityColor;
+        return this;
+    }
+
+    /**
+     * @return Memory budget of per-thread buffers of <code>renderDensity</code>, in bytes.
+     */
+    public long getDensityBufferBudget() {
+        return densityBufferBudget;
+    }
+
+    /**
+     * Sets memory budget of per-thread buffers of <code>renderDensity</code>. Threads which don't fit into it
+     * count hits in a shared buffer instead, which is slower when they hit the same pixels. Default budget
+     * is 256 MiB.
+     *
+     * @param densityBufferBudget New budget, in bytes.
+     * @return this
+     */
+    public synchronized RasterPlot setDensityBufferBudget(long densityBufferBudget) {
+        if (densityBufferBudget < 0) {
+            throw new IllegalArgumentException("Density buffer budget must not be negative");
+        }
+        this.densityBufferBudget = densityBufferBudget;
+        return this;
+    }
+
+    /**
+     * Fills whole plot plane with values determined by current <code>ScalarRule</code>, which are stored in
+     * a field buffer of <code>width * height</code> floats, and colors the plot by mapping them through current
+     * palette (see <code>remapField</code>). Changing the palette or the value range afterwards only requires
+     * <code>remapField</code>, which does not evaluate the rule.
+     *
+     * @return this
+     */
+    public synchronized RasterPlot renderField() throws ExecutionException {
+        if (scalarRule == null) {
+            throw new IllegalStateException("No scalar rule is set");
+        }
+        if (field == null) {
+            field = new float[resolution.width * resolution.height];
+        }
+        RenderCache.Key key = cacheKey(scalarRule, scalarRule.getVersion(), RenderMode.FIELD);
+        RenderCache.Entry cached = key == null ? null : renderCache.get(key);
+        if (cached != null) {
+            System.arraycopy((float[]) cached.buffer, 0, field, 0, field.length);
+            System.arraycopy(cached.extent, 0, fieldExtent, 0, 2);
+        } else {
+            fieldExtent[0] = Float.POSITIVE_INFINITY;
+            fieldExtent[1] = Float.NEGATIVE_INFINITY;
+            render(maxThreadCount, RenderMode.FIELD);
+            if (key != null) {
+                renderCache.put(key, field.clone(), fieldExtent.clone());
+            }
+        }
+        return remapField();
+    }
+
+    /**
+     * Recolors the result of last <code>renderField</code> call, using current palette, value range and
+     * back color, without evaluating the scalar rule again. Values outside of the range get the color of its
+     * nearest end; NaN values get back color of current coloring rule.
+     *
+     * @return this
+     */
+    public synchronized RasterPlot remapField() throws ExecutionException {
+        if (field == null) {
+            return this;
+        }
+        if (fieldLow == fieldLow) {
+            mapLow = fieldLow;
+            mapHigh = fieldHigh;
+        } else if (fieldExtent[0] <= fieldExtent[1]) {
+            mapLow = fieldExtent[0];
+            mapHigh = fieldExtent[1];
+        } else {
+            // no finite values at all
+            mapLow = mapHigh = 0;
+        }
+        render(maxThreadCount, RenderMode.FIELD_MAP);
+        return this;
+    }
+
+    /**
+     * @return Cache of rendered buffers used by this plot, or <code>null</code> if there is none.
+     */
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Sets cache of rendered buffers. With a cache, <code>renderSolid</code> and <code>renderField</code> first
+     * look for a buffer rendered with the same bounds, resolution and rule, and copy it instead of rendering.
+     * Rules are compared by identity and version, so a rule changed in place has to be invalidated
+     * (see <code>ColoringRule.invalidate</code>). A cache can be shared by several plots.
+     *
+     * @param renderCache New cache, or <code>null</code> to render everything.
+     * @return this
+     */
+    public synchronized RasterPlot setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+        return this;
+    }
+
+    private RenderCache.Key cacheKey(Object rule, long version, RenderMode mode) {
+        if (renderCache == null) {
+            return null;
+        }
+        return new RenderCache.Key(getDoubleBounds().getAll(), resolution.width, resolution.height, imageType,
+                rule, version, mode, precision);
+    }
+
+    /**
+     * @return Current scalar rule, or <code>null</code> if it is not set.
+     */
+    public ScalarRule getScalarRule() {
+        return scalarRule;
+    }
+
+    /**
+     * Sets rule which determines values of the field in <code>renderField</code>.
+     *
+     * @param scalarRule New rule.
+     * @return this
+     */
+    public RasterPlot setScalarRule(ScalarRule scalarRule) {
+        this.scalarRule = scalarRule;
+        return this;
+    }
+
+    /**
+     * @return Palette which maps values of the field to colors.
+     */
+    public Palette getPalette() {
+        return palette;
+    }
+
+    /**
+     * Sets palette which maps values of the field to colors. Takes effect on the next <code>renderField</code>
+     * or <code>remapField</code>.
+     *
+     * @param palette New palette.
+     * @return this
+     */
+    public RasterPlot setPalette(Palette palette) {
+        this.palette = palette;
+        return this;
+    }
+
+    /**
+     * Sets range of values which is spread over the palette. Takes effect on the next <code>renderField</code>
+     * or <code>remapField</code>.
+     *
+     * @param low  Value which gets the first color of the palette.
+     * @param high Value which gets the last color of the palette.
+     * @return this
+     */
+    public synchronized RasterPlot setFieldRange(float low, float high) {
+        if (!(low <= high)) {
+            throw new IllegalArgumentException("Field range must be ordered");
+        }
+        fieldLow = low;
+        fieldHigh = high;
+        return this;
+    }
+
+    /**
+     * Makes the range of values spread over the palette follow the extent of finite values of the field
+     * (the default).
+     *
+     * @return this
+     */
+    public synchronized RasterPlot setFieldRangeAuto() {
+        fieldLow = fieldHigh = Float.NaN;
+        return this;
+    }
+
+    /**
+     * @return {low, high}: range of values used by the last field mapping.
+     */
+    public synchronized float[] getFieldRange() {
+        return new float[]{mapLow, mapHigh};
+    }
+
+    /**
+     * Starts streaming mode. In this mode chunks are not stored in render chain; instead they are
+     * rasterized by render threads as soon as they arrive (see <code>streamChunk</code> and
+     * <code>offerChunk</code>), according to current coloring rule and bounds. At most <code>queueCapacity</code>
+     * chunks wait for rendering at any moment, so memory used by streaming does not depend on the
+     * total size of the data. Call <code>endStream</code> to finish the frame.
+     * <p>
+     * Stream workers wait for chunks on threads of their own, which exist until the stream ends, so they
+     * don't hold threads of the executor of this plot. Still, other render functions should not be called
+     * until the stream ends, as they would draw over the same pixels.
+     *
+     * @param queueCapacity Maximum number of chunks waiting for rendering.
+     * @return this
+     */
+    public synchronized RasterPlot beginStream(int queueCapacity) {
+        if (streamQueue != null) {
+            throw new IllegalStateException("Stream is already started");
+        }
+        BlockingQueue<float[]> queue = new ArrayBlockingQueue<>(queueCapacity);
+        solidBounds = null;
+        pixelBox = null;
+        streamFutures = new ArrayList<>(maxThreadCount);
+        streamPool = Executors.newFixedThreadPool(maxThreadCount, runnable -> {
+            Thread thread = new Thread(runnable, "raster-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        streamQueue = queue;
+        for (int i = 0; i < maxThreadCount; i++) {
+            streamFutures.add(streamPool.submit(new Plotter(RenderMode.STREAM, i)));
+        }
+        return this;
+    }
+
+    /**
+     * Puts a chunk of points into the stream, waiting if the stream queue is full.
+     * Chunks of odd length are ignored, as in <code>putChunk</code>.
+     *
+     * @param xy float array {x1, y1, ... xN, yN}
+     * @return this
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public RasterPlot streamChunk(float[] xy) throws InterruptedException {
+        if (xy.length % 2 == 0) activeStream().put(xy);
+        return this;
+    }
+
+    /**
+     * Puts a chunk of points into the stream, if it is possible to do so immediately.
+     * Chunks of odd length are ignored, as in <code>putChunk</code>.
+     *
+     * @param xy float array {x1, y1, ... xN, yN}
+     * @return <code>false</code> if the stream queue is full and the chunk was rejected
+     */
+    public boolean offerChunk(float[] xy) {
+        return xy.length % 2 != 0 || activeStream().offer(xy);
+    }
+
+    /**
+     * Puts a chunk of points into the stream, waiting up to the specified time if the stream queue is full.
+     * Chunks of odd length are ignored, as in <code>putChunk</code>.
+     *
+     * @param xy      float array {x1, y1, ... xN, yN}
+     * @param timeout how long to wait before giving up
+     * @param unit    unit of <code>timeout</code>
+     * @return <code>false</code> if the chunk was rejected because the stream queue stayed full
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean offerChunk(float[] xy, long timeout, TimeUnit unit) throws InterruptedException {
+        return xy.length % 2 != 0 || activeStream().offer(xy, timeout, unit);
     }
 
-    public int[] computePixelBoundingBox(int backColor) {
-        int[] boundingBox = new int[4];
-        ArrayList<Future<Integer>> futures = new ArrayList<>(4);
-        futures.add(threadPool.submit(new BoxSideFinder(FinderMode.MIN_X, backColor)));
-        futures.add(threadPool.submit(new BoxSideFinder(FinderMode.MIN_Y, backColor)));
-        futures.add(threadPool.submit(new BoxSideFinder(FinderMode.MAX_X, backColor)));
-        futures.add(threadPool.submit(new BoxSideFinder(FinderMode.MAX_Y, backColor)));
-        int i = 0;
+    /**
+     * Waits until all chunks put into the stream are rendered, and ends streaming mode. If a stream worker
+     * fails or the calling thread is interrupted, the rest of the workers are stopped, and this method
+     * returns only after all of them are done.
+     *
+     * @return this
+     * @throws ExecutionException if a stream worker failed, or if interrupted while waiting
+     */
+    public synchronized RasterPlot endStream() throws ExecutionException {
+        BlockingQueue<float[]> queue = activeStream();
+        ExecutorService pool = streamPool;
         try {
-            for (Future<Integer> f : futures) {
-                boundingBox[i++] = f.get();
+            // one end marker per worker; give up on markers when no workers are left to take them
+            int markers = streamFutures.size();
+            while (markers > 0) {
+                if (queue.offer(STREAM_END, 10, TimeUnit.MILLISECONDS)) {
+                    markers--;
+                } else if (streamFutures.stream().allMatch(Future::isDone)) {
+                    break;
+                }
+            }
+            for (Future<?> future : streamFutures) {
+                future.get();
             }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+        } catch (InterruptedException e) {
+            stopStream(pool, queue);
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        } catch (ExecutionException e) {
+            stopStream(pool, queue);
+            throw e;
+        } finally {
+            pool.shutdown();
+            streamQueue = null;
+            streamFutures = null;
+            streamPool = null;
+            plot.flush();
         }
-        return boundingBox;
+        return this;
     }
 
-    public Point planeToPixel(double x, double y) {
-        return new Point(
-                (int) ((x - bounds.getMinX()) / getScaleX()),
-                (int) (resolution.getHeight() - 1 - ((y - bounds.getMinY()) / getScaleY())));
+    /**
+     * Interrupts stream workers and waits until all of them are done, as they use the plot.
+     */
+    private static void stopStream(ExecutorService pool, BlockingQueue<float[]> queue) {
+        pool.shutdownNow();
+        // don't leave producers blocked on a queue that is not consumed anymore
+        queue.clear();
+        boolean terminated = false;
+        while (!terminated) {
+            try {
+                terminated = pool.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                // the caller restores the flag
+            }
+        }
     }
 
-    public float[] pixelToPlane(int x, int y) {
-        float[] result = new float[2];
-        result[0] = (float) (bounds.getMinX() + getScaleX() * x);
-        result[1] = -(float) (bounds.getMinY() + getScaleY() * y);
-        return result;
+    /**
+     * @return <code>true</code> if this plot is in streaming mode.
+     */
+    public boolean isStreaming() {
+        return streamQueue != null;
     }
 
-    public void shutdown() {
-        threadPool.shutdown();
+    private BlockingQueue<float[]> activeStream() {
+        BlockingQueue<float[]> queue = streamQueue;
+        if (queue == null) {
+            throw new IllegalStateException("Stream is not started");
+        }
+        return queue;
     }
 
-    private Bounds boxToBounds(int[] box) {
-        // thanks to github.com/madstrix for helping with bounds computing optimization
-        float h = (float) resolution.getHeight();
-        float w = (float) resolution.getWidth();
-        float sX = bounds.getSpanX();
-        float sY = bounds.getSpanY();
-        return new Bounds(
-                bounds.getMinX() + ((float) box[0] / w) * sX,
-                bounds.getMinY() + (1 - (float) box[3] / h) * sY,
-                bounds.getMaxX() - (1 - (float) box[2] / w) * sX,
-                bounds.getMaxY() - ((float) box[1] / h) * sY);
+    /**
+     * @return Number of points rendered by a render thread as a single work unit.
+     */
+    public int getChunkGrainSize() {
+        return chunkGrainSize;
     }
 
-    private void reallocImage() {
-        if (this.plot != null)
-            plot.getGraphics().dispose();
-        this.plot = new BufferedImage(resolution.width, resolution.height, imageType);
-        this.plotPixels = // IntBuffer.wrap(
-                ((DataBufferInt) this.plot.getRaster().getDataBuffer()).getData();//);
+    /**
+     * Sets number of points rendered by a render thread as a single work unit. Chunks and point sources
+     * larger than that are split into ranges of about this size, which are spread over all render threads.
+     * Smaller grain balances load better, larger one costs less scheduling.
+     *
+     * @param chunkGrainSize New grain size, in points.
+     * @return this
+     */
+    public RasterPlot setChunkGrainSize(int chunkGrainSize) {
+        if (chunkGrainSize < 1) {
+            throw new IllegalArgumentException("Grain size must be positive: " + chunkGrainSize);
+        }
+        this.chunkGrainSize = chunkGrainSize;
+        return this;
+    }
+
+    /**
+     * Clears render chain of RasterPlot.
+     *
+     * @return this
+     */
+    public synchronized RasterPlot clearData() {
+        this.chunks.clear();
+        this.sourceSegments.clear();
+        dataStats.reset(dataStats.sketchCapacity());
+        if (spatialIndex != null) {
+            GridIndex index = spatialIndex;
+            spatialIndex = new GridIndex(index.minX, index.minY, index.maxX, index.maxY, index.cellsX, index.cellsY);
+        }
+        return this;
+    }
+
+    /**
+     * Clears plot with color, specified in field <code>ColoringRule.backColor</code> of current
+     * coloring rule.
+     *
+     * @return this
+     */
+    public RasterPlot clearPlot() throws ExecutionException {
+        render(maxThreadCount, RenderMode.CLEAR);
+        return this;
+    }
+
+    /**
+     * Sets new coloring rule.
+     *
+     * @param rule New coloring rule
+     * @return this
+     */
+    public RasterPlot setColoringRule(ColoringRule rule) {
+        this.coloringRule = rule;
+        return this;
     }
 
-    /**
-     * Main render function.
-     */
-    private synchronized void render(int threadCount, RenderMode mode) throws ExecutionException {
-        // determine work size
-        int workSize;
-        switch (mode) {
-            case CLEAR:
-            case SOLID:
-                workSize = resolution.height;
-                break;
-            case CHUNKS:
-                workSize = this.chunks.size();
-                break;
-            default:
-                workSize = 0;
+    /**
+     * @return Current coloring rule.
+     */
+    public ColoringRule getColoringRule() {
+        return this.coloringRule;
+    }
+
+    /**
+     * Sets new bounds of the plot plane.
+     *
+     * @param bounds new bounds
+     * @return this
+     */
+    public RasterPlot setBounds(Bounds bounds) {
+        this.bounds = bounds;
+        return this;
+    }
+
+    /**
+     * Sets bounds of plot plane in double precision. <code>getBounds</code> returns them rounded to
+     * <code>float</code>; renders in <code>Precision.DOUBLE</code> mode use them as they are, until other
+     * bounds are set or the rounded ones are modified.
+     *
+     * @param bounds New bounds.
+     * @return this
+     */
+    public RasterPlot setBounds(DoubleBounds bounds) {
+        DoubleBounds precise = new DoubleBounds(bounds.getAll());
+        Bounds rounded = precise.toBounds();
+        this.preciseBounds = precise;
+        this.preciseRounded = rounded;
+        this.bounds = rounded;
+        return this;
+    }
+
+    /**
+     * @return Current bounds of plot plane in double precision: the ones set by
+     * <code>setBounds(DoubleBounds)</code>, if they are still in effect, or current bounds otherwise.
+     */
+    public DoubleBounds getDoubleBounds() {
+        Bounds current = bounds;
+        DoubleBounds precise = preciseBounds;
+        if (precise != null && current == preciseRounded &&
+                Arrays.equals(current.getAll(), precise.toBounds().getAll())) {
+            return new DoubleBounds(precise.getAll());
+        }
+        return new DoubleBounds(current);
+    }
+
+    /**
+     * @return Precision of coordinates in <code>renderSolid</code>.
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets precision of coordinates in <code>renderSolid</code>.
+     *
+     * @param precision New precision.
+     * @return this
+     */
+    public synchronized RasterPlot setPrecision(Precision precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    public RasterPlot setBounds(Rectangle coords) {
+        int x1 = coords.x;
+        int x2 = Math.max(0, coords.x + coords.width);
+        int y1 = coords.y;
+        int y2 = Math.max(0, coords.y + coords.height);
+        return setBounds(boxToBounds(new int[]{
+                Math.min(x1, x2),
+                Math.min(y1, y2),
+                Math.max(x1, x2),
+                Math.max(y1, y2)
+        }));
+    }
+
+    /**
+     * @return Current bounds of plot plane.
+     */
+    public Bounds getBounds() {
+        return this.bounds;
+    }
+
+    /**
+     * @return Current resolution (in plotPixels).
+     */
+    public Dimension getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Sets new resolution of plot plane (in plotPixels).
+     *
+     * @param resolution New resolution.
+     * @return this
+     */
+    public RasterPlot setResolution(Dimension resolution) {
+        this.resolution = resolution;
+        reallocImage();
+        return this;
+    }
+
+    /**
+     * Adds listener which receives metrics of every render pass of this plot and of every
+     * <code>saveToFile</code> call (see <code>RenderMetrics</code>). Metrics are only gathered while
+     * there are listeners.
+     *
+     * @param listener Listener to add.
+     * @return this
+     */
+    public RasterPlot addRenderListener(RenderListener listener) {
+        renderListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Removes listener added by <code>addRenderListener</code>.
+     *
+     * @param listener Listener to remove.
+     * @return this
+     */
+    public RasterPlot removeRenderListener(RenderListener listener) {
+        renderListeners.remove(listener);
+        return this;
+    }
+
+    private void notifyListeners(RenderMetrics metrics) {
+        for (RenderListener listener : renderListeners) {
+            listener.renderCompleted(this, metrics);
+        }
+    }
+
+    /**
+     * Returns current <code>utils.Logger</code> instance.
+     *
+     * @return <code>utils.Logger</code> instance.
+     */
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Sets new <code>utils.Logger</code> instance, which can be used to obtain information about
+     * current state, errors, and warnings.
+     *
+     * @param logger New <code>utils.Logger</code> instance.
+     * @return this
+     */
+    public RasterPlot setLogger(Logger logger) {
+        this.logger = logger;
+        return this;
+    }
+
+    /**
+     * Returns number of threads this instance of <code>RasterPlot</code> can use.
+     *
+     * @return Number of threads
+     */
+    public int getMaxThreadCount() {
+        return maxThreadCount;
+    }
+
+    /**
+     * Set maximum number of threads to specified value.
+     *
+     * @param maxThreadCount new thread limit.
+     * @return this
+     */
+    public synchronized RasterPlot setMaxThreadCount(int maxThreadCount) {
+        if (maxThreadCount != this.maxThreadCount) {
+            // own pool is sized by thread limit, it will be created again when needed
+            releaseThreadPool();
+        }
+        this.maxThreadCount = maxThreadCount;
+        return this;
+    }
+
+    /**
+     * Returns executor, which runs render threads of this <code>RasterPlot</code>.
+     *
+     * @return executor
+     */
+    public ExecutorService getExecutor() {
+        return executor();
+    }
+
+    /**
+     * Sets executor to run render threads. It is not shut down by <code>shutdown</code> or <code>close</code>,
+     * so it can be shared by many plots, e.g. <code>ForkJoinPool.commonPool()</code>, a pool of the application,
+     * or <code>newVirtualThreadExecutor()</code>. Each render still uses at most <code>maxThreadCount</code>
+     * threads of it. By default, every <code>RasterPlot</code> creates its own <code>ForkJoinPool</code>
+     * of <code>maxThreadCount</code> threads.
+     *
+     * @param executor New executor, or <code>null</code> to go back to the default one.
+     * @return this
+     */
+    public synchronized RasterPlot setExecutor(ExecutorService executor) {
+        releaseThreadPool();
+        this.threadPool = executor;
+        this.ownsThreadPool = false;
+        return this;
+    }
+
+    /**
+     * @return plot plane image.
+     */
+    public BufferedImage getPlot() {
+        return plot;
+    }
+
+    /**
+     * Saves current plot image to specified file.
+     *
+     * @param filename file to be written
+     * @param format   image format
+     * @return this
+     */
+    public RasterPlot saveToFile(String filename, String format) throws IOException {
+        boolean measured = !renderListeners.isEmpty();
+        long started = measured ? System.nanoTime() : 0;
+        FileOutputStream out = new FileOutputStream(filename);
+        if ("png".equalsIgnoreCase(format) && PngWriter.isSupported(imageType)) {
+            writePng(new BufferedOutputStream(out, 1 << 16));
+        } else {
+            ImageIO.write(this.plot, format, out);
+        }
+        out.close();
+        if (measured) {
+            notifyListeners(new RenderMetrics("ENCODE", System.nanoTime() - started,
+                    (long) resolution.width * resolution.height, 0, 0, 0, 0, new long[0], new long[0]));
+        }
+        return this;
+    }
+
+    /**
+     * Writes current plot image to <code>out</code> in PNG format, encoding it in parallel by render threads
+     * with current settings of <code>getPngWriter()</code>. The stream is flushed, but not closed.
+     * Plots of type <code>TYPE_INT_ARGB_PRE</code> are written by <code>ImageIO</code>.
+     *
+     * @param out output stream
+     * @return this
+     */
+    public RasterPlot writePng(OutputStream out) throws IOException {
+        if (PngWriter.isSupported(imageType)) {
+            pngWriter.write(plotPixels, resolution.width, resolution.height, imageType, out,
+                    executor(), maxThreadCount);
+        } else {
+            ImageIO.write(this.plot, "png", out);
+        }
+        out.flush();
+        return this;
+    }
+
+    /**
+     * Writes current plot image to <code>channel</code> in PNG format, as <code>writePng(OutputStream)</code>
+     * does. The channel is not closed.
+     *
+     * @param channel output channel, e.g. a <code>FileChannel</code>
+     * @return this
+     */
+    public RasterPlot writePng(WritableByteChannel channel) throws IOException {
+        return writePng(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    /**
+     * Returns PNG encoder used by <code>saveToFile</code> and <code>writePng</code>, to change its settings.
+     *
+     * @return PNG encoder
+     */
+    public PngWriter getPngWriter() {
+        return pngWriter;
+    }
+
+    /**
+     * Writes current plot image into <code>target</code> in raw <code>format</code>, starting at its position,
+     * which is advanced past the image. Pixels are converted by render threads straight from the plot image,
+     * without intermediate copies; exporting as <code>ARGB</code> from a plot of type <code>TYPE_INT_ARGB</code>
+     * is a plain bulk copy. Use a direct buffer or a <code>MappedByteBuffer</code> to keep the data off heap.
+     * <p>
+     * Plots of type <code>TYPE_INT_ARGB_PRE</code> are exported with premultiplied colors.
+     *
+     * @param target buffer with at least <code>format.getSize(width, height)</code> bytes remaining
+     * @param format raw format
+     * @return this
+     */
+    public synchronized RasterPlot exportRaw(ByteBuffer target, RawFormat format) throws ExecutionException {
+        int w = resolution.width;
+        int h = resolution.height;
+        long size = format.getSize(w, h);
+        if (target.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+        target.put(format.header(w, h));
+        transferRaw(target, format, 0, h, RenderMode.RAW_EXPORT);
+        target.position(target.position() + h * w * format.getBytesPerPixel());
+        return this;
+    }
+
+    /**
+     * Reads plot image from <code>source</code> in raw <code>format</code>, starting at its position, which
+     * is advanced past the image. For formats with a header, resolution of the plot is changed to the one
+     * of the image; headerless images must be of the current resolution of the plot.
+     *
+     * @param source buffer with an image
+     * @param format raw format
+     * @return this
+     * @throws IOException if the header is malformed, or the buffer is too short
+     */
+    public synchronized RasterPlot importRaw(ByteBuffer source, RawFormat format) throws IOException, ExecutionException {
+        if (format.hasHeader()) {
+            resizeTo(format.readHeader(source));
+        }
+        int h = resolution.height;
+        long length = (long) resolution.width * h * format.getBytesPerPixel();
+        if (source.remaining() < length) {
+            throw new IOException("Image data is truncated");
+        }
+        transferRaw(source, format, 0, h, RenderMode.RAW_IMPORT);
+        source.position(source.position() + (int) length);
+        return this;
+    }
+
+    /**
+     * Saves current plot image to specified file in raw <code>format</code>. The file is written through
+     * memory mappings, as <code>exportRaw</code> does; files larger than 1GB are mapped piece by piece.
+     *
+     * @param filename file to be written
+     * @param format   raw format
+     * @return this
+     */
+    public synchronized RasterPlot saveRaw(String filename, RawFormat format) throws IOException, ExecutionException {
+        int w = resolution.width;
+        int h = resolution.height;
+        byte[] header = format.header(w, h);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(header));
+            int rowBytes = w * format.getBytesPerPixel();
+            int rows = (int) Math.max(1, PointSource.MAX_SEGMENT_BYTES / rowBytes);
+            for (int y0 = 0; y0 < h; y0 += rows) {
+                int y1 = Math.min(h, y0 + rows);
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE,
+                        header.length + (long) y0 * rowBytes, (long) (y1 - y0) * rowBytes);
+                transferRaw(mapping, format, y0, y1, RenderMode.RAW_EXPORT);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Loads plot image from a file in raw <code>format</code>, mapping it into memory as <code>importRaw</code>
+     * does. For formats with a header, resolution of the plot is changed to the one of the image;
+     * headerless files must hold exactly an image of the current resolution of the plot.
+     *
+     * @param filename file to be read
+     * @param format   raw format
+     * @return this
+     * @throws IOException if the file can't be read, or is not an image of the expected size
+     */
+    public synchronized RasterPlot loadRaw(String filename, RawFormat format) throws IOException, ExecutionException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long headerLength = 0;
+            if (format.hasHeader()) {
+                ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 12));
+                resizeTo(format.readHeader(head));
+                headerLength = head.position();
+            }
+            int w = resolution.width;
+            int h = resolution.height;
+            int rowBytes = w * format.getBytesPerPixel();
+            if (channel.size() - headerLength != (long) h * rowBytes) {
+                throw new IOException("File is not a " + w + "x" + h + " image in " + format + " format");
+            }
+            int rows = (int) Math.max(1, PointSource.MAX_SEGMENT_BYTES / rowBytes);
+            for (int y0 = 0; y0 < h; y0 += rows) {
+                int y1 = Math.min(h, y0 + rows);
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY,
+                        headerLength + (long) y0 * rowBytes, (long) (y1 - y0) * rowBytes);
+                transferRaw(mapping, format, y0, y1, RenderMode.RAW_IMPORT);
+            }
+        }
+        return this;
+    }
+
+    private void resizeTo(int[] size) {
+        if (size[0] != resolution.width || size[1] != resolution.height) {
+            setResolution(new Dimension(size[0], size[1]));
+        }
+    }
+
+    /**
+     * Converts rows <code>y0 .. y1 - 1</code> of the plot to or from <code>format</code>, in <code>buffer</code>
+     * from its position.
+     */
+    private void transferRaw(ByteBuffer buffer, RawFormat format, int y0, int y1, RenderMode mode)
+            throws ExecutionException {
+        rawBuffer = buffer.slice();
+        rawFormat = format;
+        rawY0 = y0;
+        rawY1 = y1;
+        try {
+            render(maxThreadCount, mode);
+        } finally {
+            rawBuffer = null;
+        }
+    }
+
+    /**
+     * Converts a pixel of the plot image to ARGB.
+     */
+    private static int toArgb(int pixel, int imageType) {
+        switch (imageType) {
+            case BufferedImage.TYPE_INT_RGB:
+                return 0xFF000000 | pixel;
+            case BufferedImage.TYPE_INT_BGR:
+                return 0xFF000000 | (pixel & 0xFF) << 16 | pixel & 0xFF00 | (pixel >>> 16) & 0xFF;
+            default:
+                return pixel;
+        }
+    }
+
+    /**
+     * Converts an ARGB color to a pixel of the plot image.
+     */
+    private static int fromArgb(int argb, int imageType) {
+        switch (imageType) {
+            case BufferedImage.TYPE_INT_RGB:
+                return argb & 0xFFFFFF;
+            case BufferedImage.TYPE_INT_BGR:
+                return (argb & 0xFF) << 16 | argb & 0xFF00 | (argb >>> 16) & 0xFF;
+            default:
+                return argb;
+        }
+    }
+
+    /**
+     * Draws a text string at the specified location on plot, using current <code>Font</code> and <code>Color</code>, specified for
+     * this instance of <code>RasterPlot</code>. Default font is Times New Roman - size 20, default color is white.
+     * Might be very slow for huge images.
+     *
+     * @param text     Text string to be drawn
+     * @param position Label position
+     * @return this
+     */
+    public RasterPlot drawLabel(String text, LabelPosition position) {
+        solidBounds = null;
+        pixelBox = null;
+        Graphics2D g2d = plot.createGraphics();
+        g2d.setFont(labelFont);
+        g2d.setColor(labelColor);
+        int strWidth = g2d.getFontMetrics().stringWidth(text);
+        int strHeight = g2d.getFontMetrics().getHeight();
+        int x, y;
+        switch (position) {
+            case BOTTOM_LEFT:
+                x = 0;
+                y = resolution.height - strHeight;
+                break;
+            case BOTTOM_RIGHT:
+                x = resolution.width - strWidth;
+                y = resolution.height - strHeight;
+                break;
+            case CENTER:
+                x = (resolution.width - strWidth) / 2;
+                y = (resolution.height - strHeight) / 2;
+                break;
+            case UPPER_RIGHT:
+                x = resolution.width - strWidth;
+                y = strHeight;
+                break;
+            case UPPER_LEFT:
+            default:
+                x = 0;
+                y = strHeight;
+        }
+        g2d.drawString(text, x, y);
+        return this;
+    }
+
+    /**
+     * Draws a text string at the specified location on plot, using current <code>Font</code> and <code>Color</code>, specified for
+     * this instance of <code>RasterPlot</code>. Default font is Times New Roman - size 20, default color is white.
+     * Might be very slow for huge images.
+     *
+     * @param text Text string to be drawn
+     * @param x    x-coordinate in plot plane coordinates
+     * @param y    y-coordinate in plot plane coordinates
+     * @return this
+     */
+    public RasterPlot drawLabel(String text, float x, float y) {
+        Point pixelCoord = planeToPixel(x, y);
+        solidBounds = null;
+        pixelBox = null;
+        Graphics2D g2d = plot.createGraphics();
+        g2d.setColor(labelColor);
+        g2d.setFont(labelFont);
+        g2d.drawString(text, pixelCoord.x, pixelCoord.y);
+        return this;
+    }
+
+    /**
+     * Get current label font.
+     *
+     * @return Font
+     */
+    public Font getLabelFont() {
+        return labelFont;
+    }
+
+    /**
+     * Set new font for labels.
+     *
+     * @param labelFont - new Font
+     * @return this
+     */
+    public RasterPlot setLabelFont(Font labelFont) {
+        this.labelFont = labelFont;
+        return this;
+    }
+
+    /**
+     * Get current label color.
+     *
+     * @return Color
+     */
+    public Color getLabelColor() {
+        return labelColor;
+    }
+
+    /**
+     * Set new label Color.
+     *
+     * @param labelColor new color
+     * @return this;
+     */
+    public RasterPlot setLabelColor(Color labelColor) {
+        this.labelColor = labelColor;
+        return this;
+    }
+
+    public void drawBox(int[] rect, int color) {
+        solidBounds = null;
+        pixelBox = null;
+        int xSize = resolution.width;
+        int ySize = resolution.height;
+        for (int i = 0; i < ySize; i++) {
+            //plotPixels.put(rect[0] + i*xSize, color);
+            plotPixels[rect[0] + i * xSize] = color;
+            //plotPixels.put(rect[2] + i*xSize, color);
+            plotPixels[rect[2] + i * xSize] = color;
+        }
+        for (int i = 0; i < xSize; i++) {
+            //plotPixels.put(i + rect[1]*xSize, color);
+            plotPixels[i + rect[1] * xSize] = color;
+            //plotPixels.put(i + rect[3]*xSize, color);
+            plotPixels[i + rect[3] * xSize] = color;
+        }
+    }
+
+    public boolean applyBoundingBox(double applyThreshold) {
+        return applyBoundingBox(applyThreshold, coloringRule.getBackColor());
+    }
+
+    public boolean applyBoundingBox(double applyThreshold, int backColor) {
+        Bounds newBounds = computeBoundingBox(backColor);
+        if (newBounds.getSpanY() / bounds.getSpanY() > applyThreshold ||
+                newBounds.getSpanX() / bounds.getSpanX() > applyThreshold) {
+            bounds = newBounds;
+            return true;
+        }
+        return false;
+    }
+
+    public Bounds computeAndDrawBoundingBox(int boxColor) {
+        int[] box = computePixelBoundingBox();
+        drawBox(box, boxColor);
+        return boxToBounds(box);
+    }
+
+    public Bounds computeBoundingBox() {
+        return computeBoundingBox(coloringRule.getBackColor());
+    }
+
+    public Bounds computeBoundingBox(int backColor) {
+        return boxToBounds(computePixelBoundingBox(backColor));
+    }
+
+    public int[] computePixelBoundingBox() {
+        return computePixelBoundingBox(coloringRule.getBackColor());
+    }
+
+    /**
+     * Computes the smallest rectangle of pixels which contains all pixels not of <code>backColor</code>.
+     * If the plot has no such pixels, the whole plot plane is returned.
+     * <p>
+     * <code>clearPlot</code>, <code>renderSolid</code> and <code>renderChunks</code> keep track of this rectangle
+     * as they write pixels, so right after them it is returned without looking at pixels at all, provided
+     * <code>backColor</code> is the back color of their coloring rule. Otherwise all rows of the plot are
+     * scanned in parallel, in a single pass, and the result is remembered until the plot is changed.
+     *
+     * @param backColor Color of pixels which are not of interest.
+     * @return {minX, minY, maxX, maxY}, inclusive
+     */
+    public synchronized int[] computePixelBoundingBox(int backColor) {
+        int[] box = pixelBox;
+        if (box == null || pixelBoxBack != backColor) {
+            trackedBack = backColor;
+            try {
+                render(maxThreadCount, RenderMode.BOUNDING_BOX);
+                box = pixelBox;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                box = EMPTY_BOX;
+            }
+        }
+        if (box[2] < 0) {
+            return new int[]{0, 0, resolution.width - 1, resolution.height - 1};
+        }
+        return box.clone();
+    }
+
+    /**
+     * Forgets the pixel bounding box tracked by renders. Must be called if the plot image is changed
+     * by other means than methods of this class, e.g. by drawing on <code>getPlot()</code> directly.
+     *
+     * @return this
+     */
+    public RasterPlot invalidateBoundingBox() {
+        pixelBox = null;
+        return this;
+    }
+
+    public Point planeToPixel(double x, double y) {
+        return new Point(
+                (int) ((x - bounds.getMinX()) / getScaleX()),
+                (int) (resolution.getHeight() - 1 - ((y - bounds.getMinY()) / getScaleY())));
+    }
+
+    public float[] pixelToPlane(int x, int y) {
+        float[] result = new float[2];
+        result[0] = (float) (bounds.getMinX() + getScaleX() * x);
+        result[1] = -(float) (bounds.getMinY() + getScaleY() * y);
+        return result;
+    }
+
+    /**
+     * Shuts down the thread pool of this <code>RasterPlot</code>, if it was created by it.
+     * Executors set by <code>setExecutor</code> are left running.
+     */
+    public synchronized void shutdown() {
+        releaseThreadPool();
+        synchronized (asyncLock) {
+            if (asyncDriver != null) {
+                asyncDriver.shutdown();
+                asyncDriver = null;
+            }
+        }
+    }
+
+    /**
+     * Shuts down the thread pool of this plot if it was created by it, and forgets it. An executor set by
+     * <code>setExecutor</code> is kept, as it belongs to the caller.
+     */
+    private void releaseThreadPool() {
+        if (ownsThreadPool && threadPool != null) {
+            threadPool.shutdown();
+            threadPool = null;
+        }
+    }
+
+    /**
+     * Same as <code>shutdown</code>.
+     */
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    /**
+     * Creates an executor, which starts a new virtual thread for each task. Requires Java 21 or newer.
+     * Virtual threads are cheap, so many plots can share such executor, or have one each.
+     *
+     * @return new executor
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Returns executor, which runs render threads, creating it if needed.
+     */
+    private synchronized ExecutorService executor() {
+        if (threadPool == null) {
+            threadPool = new ForkJoinPool(maxThreadCount);
+            ownsThreadPool = true;
+        }
+        return threadPool;
+    }
+
+    private Bounds boxToBounds(int[] box) {
+        // thanks to github.com/madstrix for helping with bounds computing optimization
+        float h = (float) resolution.getHeight();
+        float w = (float) resolution.getWidth();
+        float sX = bounds.getSpanX();
+        float sY = bounds.getSpanY();
+        return new Bounds(
+                bounds.getMinX() + ((float) box[0] / w) * sX,
+                bounds.getMinY() + (1 - (float) box[3] / h) * sY,
+                bounds.getMaxX() - (1 - (float) box[2] / w) * sX,
+                bounds.getMaxY() - ((float) box[1] / h) * sY);
+    }
+
+    private void reallocImage() {
+        if (this.plot != null)
+            plot.getGraphics().dispose();
+        this.plot = new BufferedImage(resolution.width, resolution.height, imageType);
+        this.plotPixels = // IntBuffer.wrap(
+                ((DataBufferInt) this.plot.getRaster().getDataBuffer()).getData();//);
+        this.densityBuffers = null;
+        this.densityShared = null;
+        this.densityCounts = null;
+        this.field = null;
+        this.solidBounds = null;
+        this.pixelBox = null;
+        this.previewPixels = null;
+    }
+
+    /**
+     * Splits chunks and point sources of render chain into work units of about <code>chunkGrainSize</code>
+     * points, so that a single large chunk is rendered by all threads.
+     *
+     * @return number of work units
+     */
+    private int preparePointWork() {
+        return preparePointWork(true);
+    }
+
+    /**
+     * @param indexed whether spatial index may be used, i.e. whether points may be rendered out of order
+     */
+    private int preparePointWork(boolean indexed) {
+        long grain = 2L * chunkGrainSize;
+        workUnits = 0;
+        GridIndex index = indexed ? spatialIndex : null;
+        int cx0 = 0, cx1 = 0, cy0 = 0, cy1 = 0;
+        if (index != null) {
+            cx0 = index.cellX(bounds.getMinX());
+            cx1 = index.cellX(bounds.getMaxX());
+            cy0 = index.cellY(bounds.getMinY());
+            cy1 = index.cellY(bounds.getMaxY());
+        }
+        int first = 0;
+        for (int g = 0; index != null && g < index.groups(); g++) {
+            // points of visible cells, row by row of the grid
+            int[] cellStart = index.cellStart(g);
+            int[] chunkStart = index.chunkStart(g);
+            int visible = 0;
+            for (int cy = cy0; cy <= cy1; cy++) {
+                visible += cellStart[cy * index.cellsX + cx1 + 1] - cellStart[cy * index.cellsX + cx0];
+            }
+            first = index.firstChunk(g) + chunkStart.length - 1;
+            // indirect access only pays off if it skips most of the group
+            if (visible < chunkStart[chunkStart.length - 1] * INDEXED_FRACTION) {
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    addUnits(-g - 1, cellStart[cy * index.cellsX + cx0],
+                            cellStart[cy * index.cellsX + cx1 + 1], chunkGrainSize, 1);
+                }
+            } else {
+                for (int i = index.firstChunk(g); i < first; i++) {
+                    addUnits(i, 0, chunks.get(i).length / 2, grain / 2, 2);
+                }
+            }
+        }
+        for (int i = first; i < chunks.size() + sourceSegments.size(); i++) {
+            int length = i < chunks.size() ? chunks.get(i).length : sourceSegments.get(i - chunks.size()).limit();
+            addUnits(i, 0, length / 2, grain / 2, 2);
+        }
+        return workUnits;
+    }
+
+    /**
+     * Adds work units which cover points <code>from .. to - 1</code> of target <code>target</code>, split into
+     * ranges of equal size, rather than full grains followed by a short tail.
+     */
+    private void addUnits(int target, int from, int to, long grain, int pointSize) {
+        if (from == to) {
+            return;
+        }
+        int parts = parts(to - from, grain);
+        if (workUnits + parts > workTarget.length) {
+            int capacity = Math.max(workUnits + parts, 2 * workTarget.length);
+            workTarget = Arrays.copyOf(workTarget, capacity);
+            workFrom = Arrays.copyOf(workFrom, capacity);
+            workTo = Arrays.copyOf(workTo, capacity);
+        }
+        for (int part = 0; part < parts; part++, workUnits++) {
+            workTarget[workUnits] = target;
+            workFrom[workUnits] = pointSize * (from + (int) ((long) (to - from) * part / parts));
+            workTo[workUnits] = pointSize * (from + (int) ((long) (to - from) * (part + 1) / parts));
+        }
+    }
+
+    /**
+     * Blends <code>color</code> over <code>dst</code> with weight <code>coverage</code> times alpha of
+     * <code>color</code>, channel by channel.
+     */
+    private static int blend(int dst, int color, float coverage) {
+        int k = (int) (coverage * (color >>> 24) * (256f / 255f));
+        int result = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int a = (dst >>> shift) & 0xFF;
+            int b = (color >>> shift) & 0xFF;
+            result |= (a + (((b - a) * k) >> 8)) << shift;
+        }
+        int alpha = dst >>> 24;
+        return result | (alpha + (((255 - alpha) * k) >> 8)) << 24;
+    }
+
+    private static int parts(long length, long grain) {
+        return (int) Math.max(1, (length + grain - 1) / grain);
+    }
+
+    private static int[] buildDensityLut(int from, int to) {
+        int[] lut = new int[DENSITY_LUT_SIZE];
+        for (int i = 0; i < DENSITY_LUT_SIZE; i++) {
+            int color = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int a = (from >>> shift) & 0xFF;
+                int b = (to >>> shift) & 0xFF;
+                color |= (a + (b - a) * i / (DENSITY_LUT_SIZE - 1)) << shift;
+            }
+            lut[i] = color;
+        }
+        return lut;
+    }
+
+    private static float[] buildDensityCdf(int[][] histograms) {
+        float[] cdf = new float[DENSITY_HISTOGRAM_SIZE];
+        long total = 0;
+        for (int bin = 0; bin < DENSITY_HISTOGRAM_SIZE; bin++) {
+            for (int[] histogram : histograms) {
+                total += histogram[bin];
+                histogram[bin] = 0;
+            }
+            cdf[bin] = total;
+        }
+        for (int bin = 0; bin < DENSITY_HISTOGRAM_SIZE; bin++) {
+            cdf[bin] = total == 0 ? 0 : cdf[bin] / total;
+        }
+        return cdf;
+    }
+
+    private int densityBin(int count, int max) {
+        return max <= 1 ? 0 : (int) ((long) (count - 1) * (DENSITY_HISTOGRAM_SIZE - 1) / (max - 1));
+    }
+
+    /**
+     * Main render function.
+     */
+    private synchronized void render(int threadCount, RenderMode mode) throws ExecutionException {
+        // determine work size
+        int workSize;
+        switch (mode) {
+            case SOLID:
+                workSize = regionY1 - regionY0;
+                break;
+            case PROGRESSIVE:
+                workSize = (resolution.height + progressiveStep - 1) / progressiveStep;
+                break;
+            case ADAPTIVE:
+                workSize = ((resolution.width + adaptiveTileSize - 1) / adaptiveTileSize) *
+                        ((resolution.height + adaptiveTileSize - 1) / adaptiveTileSize);
+                break;
+            case CLEAR:
+            case SUPERSAMPLED:
+            case ZOOM_PREVIEW:
+            case DENSITY_MERGE:
+            case DENSITY_HISTOGRAM:
+            case DENSITY_TONE_MAP:
+            case FIELD:
+            case FIELD_MAP:
+            case BOUNDING_BOX:
+                workSize = resolution.height;
+                break;
+            case RAW_EXPORT:
+            case RAW_IMPORT:
+                workSize = rawY1 - rawY0;
+                break;
+            case CHUNKS:
+            case POLYLINES:
+            case DENSITY:
+                workSize = this.workUnits;
+                break;
+            default:
+                workSize = 0;
+        }
+
+        // init work pool
+        scheduler.reset(workSize, threadCount);
+        boolean readOnly = mode == RenderMode.BOUNDING_BOX || mode == RenderMode.RAW_EXPORT || mode == RenderMode.FIELD;
+        // a pass of a progressive render is not a finished solid render, it remembers itself after the last one
+        if (mode != RenderMode.SOLID && mode != RenderMode.ADAPTIVE && !readOnly) {
+            solidBounds = null;
+        }
+
+        // pixel bounding box stays known only through renders which track it
+        int[] previousBox = pixelBox;
+        if (!readOnly) {
+            pixelBox = null;
+            trackedBack = coloringRule.getBackColor();
+        }
+        System.arraycopy(EMPTY_BOX, 0, renderBox, 0, 4);
+        renderBoxExact = true;
+
+        // per-worker {queue wait, busy time, points, points drawn, segments, segments drawn}, only gathered for listeners
+        long started = 0;
+        long[] stats = null;
+        if (!renderListeners.isEmpty()) {
+            started = System.nanoTime();
+            stats = new long[WORKER_STATS * threadCount];
+        }
+
+        // async renders share their signal between passes, so cancellation stops all of them
+        StopSignal signal = asyncSignal != null ? asyncSignal : new StopSignal(-1);
+        renderSignal = signal;
+        workAbandoned = false;
+
+        // start threads
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(executor().submit(new Plotter(mode, i, stats, started)));
+        }
+
+        // wait for threads to complete; if interrupted, stop them, but still wait, as they use the plot
+        InterruptedException interrupted = null;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = e;
+                    signal.stop();
+                }
+            }
+        }
+        // a deadline which passed after the last work item was taken doesn't make the pass partial
+        renderStopped = workAbandoned;
+        renderSignal = null;
+        if (interrupted != null || renderStopped) {
+            discardPartialDensity(mode);
+        }
+        if (interrupted != null) {
+            solidBounds = null;
+            plot.flush();
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(interrupted);
+        }
+        if (renderStopped) {
+            // a partial render has no known bounding box, and can't be shifted by incremental renders
+            solidBounds = null;
+        } else {
+            switch (mode) {
+                case BOUNDING_BOX:
+                    pixelBoxBack = trackedBack;
+                    pixelBox = renderBox.clone();
+                    break;
+                case CLEAR:
+                    pixelBoxBack = trackedBack;
+                    pixelBox = EMPTY_BOX;
+                    break;
+                case SOLID:
+                    if (isFullRegion()) {
+                        pixelBoxBack = trackedBack;
+                        pixelBox = renderBox.clone();
+                    }
+                    break;
+                case CHUNKS:
+                case POLYLINES:
+                    // points are drawn over existing pixels, so the box can only grow
+                    if (previousBox != null && pixelBoxBack == trackedBack && renderBoxExact) {
+                        pixelBox = new int[]{
+                                Math.min(previousBox[0], renderBox[0]), Math.min(previousBox[1], renderBox[1]),
+                                Math.max(previousBox[2], renderBox[2]), Math.max(previousBox[3], renderBox[3])};
+                    }
+                    break;
+            }
+        }
+
+        plot.flush();
+
+        if (stats != null) {
+            reportPass(mode, System.nanoTime() - started, threadCount, stats);
+        }
+    }
+
+    /**
+     * Drops density buffers left in an unknown state by a density pass which didn't finish: per-thread
+     * buffers are all zeros only after a complete merge, and a partial merge leaves merged counts half updated.
+     */
+    private void discardPartialDensity(RenderMode mode) {
+        if (mode == RenderMode.DENSITY || mode == RenderMode.DENSITY_MERGE) {
+            densityBuffers = null;
+            densityShared = null;
+        }
+        if (mode == RenderMode.DENSITY_MERGE) {
+            densityCounts = null;
+        }
+    }
+
+    private void reportPass(RenderMode mode, long wallNanos, int threadCount, long[] stats) {
+        long pixels;
+        switch (mode) {
+            case SOLID:
+                pixels = (long) (regionX1 - regionX0) * (regionY1 - regionY0);
+                break;
+            case CHUNKS:
+            case POLYLINES:
+            case DENSITY:
+                pixels = 0;
+                break;
+            case RAW_EXPORT:
+            case RAW_IMPORT:
+                pixels = (long) (rawY1 - rawY0) * resolution.width;
+                break;
+            default:
+                pixels = (long) resolution.width * resolution.height;
+        }
+        long[] busy = new long[threadCount];
+        long[] wait = new long[threadCount];
+        long points = 0, drawn = 0, segments = 0, drawnSegments = 0;
+        for (int i = 0; i < threadCount; i++) {
+            wait[i] = stats[WORKER_STATS * i];
+            busy[i] = stats[WORKER_STATS * i + 1];
+            points += stats[WORKER_STATS * i + 2];
+            drawn += stats[WORKER_STATS * i + 3];
+            segments += stats[WORKER_STATS * i + 4];
+            drawnSegments += stats[WORKER_STATS * i + 5];
+        }
+        // vertices of polylines are not culled, their segments are
+        long culled = mode == RenderMode.POLYLINES ? 0 : points - drawn;
+        notifyListeners(new RenderMetrics(mode.name(), wallNanos, pixels, points, culled,
+                segments, segments - drawnSegments, busy, wait));
+    }
+
+    private boolean isFullRegion() {
+        return regionX0 == 0 && regionY0 == 0 && regionX1 == resolution.width && regionY1 == resolution.height;
+    }
+
+    /**
+     * Merges bounding box found by a render worker into the box of the current render.
+     */
+    private void mergeRenderBox(int minX, int minY, int maxX, int maxY, boolean exact) {
+        synchronized (renderBox) {
+            renderBox[0] = Math.min(renderBox[0], minX);
+            renderBox[1] = Math.min(renderBox[1], minY);
+            renderBox[2] = Math.max(renderBox[2], maxX);
+            renderBox[3] = Math.max(renderBox[3], maxY);
+            renderBoxExact &= exact;
+        }
+    }
+
+    double getScaleX() {
+        return bounds.getSpanX() / resolution.getWidth();
+    }
+
+    double getScaleY() {
+        return bounds.getSpanY() / resolution.getHeight();
+    }
+
+    /**
+     * Request to stop a render, either explicit or after a deadline. Render threads check it before taking
+     * each work item.
+     */
+    private static final class StopSignal {
+        private final long deadline;
+        private final boolean timed;
+        private volatile boolean stopped;
+
+        /**
+         * @param budgetNanos time budget from now, or a negative number for none
+         */
+        StopSignal(long budgetNanos) {
+            this.timed = budgetNanos >= 0;
+            this.deadline = timed ? System.nanoTime() + budgetNanos : 0;
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        boolean isStopped() {
+            if (!stopped && timed && System.nanoTime() - deadline >= 0) {
+                stopped = true;
+            }
+            return stopped;
+        }
+    }
+
+    private interface AsyncRender {
+        void run() throws ExecutionException;
+    }
+
+    private enum RenderMode {SOLID, CHUNKS, CLEAR, DENSITY, DENSITY_MERGE, DENSITY_HISTOGRAM, DENSITY_TONE_MAP, STREAM,
+        ZOOM_PREVIEW, ADAPTIVE, PROGRESSIVE, SUPERSAMPLED, BOUNDING_BOX, RAW_EXPORT, RAW_IMPORT,
+        FIELD, FIELD_MAP, POLYLINES}
+
+    /**
+     * Number of points colored by a single <code>ColoringRule.colorPoints</code> call.
+     */
+    private static final int BATCH_SIZE = 512;
+
+    /**
+     * Misalignment of pixels, in pixels, which <code>renderSolidIncremental</code> still treats as a pure
+     * translation. It doesn't depend on resolution, so shifted pixels stay aligned on large plots too.
+     */
+    private static final double PAN_TOLERANCE = 1e-3;
+
+    /**
+     * Spatial index is used for a chunk only if less than this part of its points are in visible cells.
+     */
+    private static final double INDEXED_FRACTION = 0.5;
+
+    /**
+     * Regions of <code>renderSolidAdaptive</code> which are this small or smaller are evaluated fully.
+     */
+    private static final int MIN_SUBDIVISION_SIZE = 4;
+
+    /**
+     * Distances between computed pixels after each pass of <code>renderSolidProgressive</code>.
+     */
+    private static final int[] PROGRESSIVE_STEPS = {8, 4, 2, 1};
+
+    /**
+     * Limit of samples per axis in <code>renderSolidSupersampled</code>, bounds the cost of a pixel to 256 evaluations
+     * of the rule. Channel sums plus rounding (at most <code>255.5 * samples * samples</code>) would stay within an int
+     * up to 2899.
+     */
+    private static final int MAX_SAMPLES = 16;
+
+    /**
+     * Number of measurements of a worker gathered for <code>RenderMetrics</code>.
+     */
+    private static final int WORKER_STATS = 6;
+
+    /**
+     * Marker which tells stream workers to finish.
+     */
+    private static final float[] STREAM_END = new float[0];
+
+    private static final int DENSITY_LUT_SIZE = 256;
+    private static final int DENSITY_HISTOGRAM_SIZE = 4096;
+
+    /**
+     * Pixel bounding box of a plot without any pixels of interest.
+     */
+    private static final int[] EMPTY_BOX = {Integer.MAX_VALUE, Integer.MAX_VALUE, -1, -1};
+
+    /**
+     * Mariani-Silver subdivision of solid renders. All rectangles are given by inclusive pixel coordinates.
+     */
+    private class Subdivision {
+        // the same mapping of pixels to coordinates as in Plotter.renderSolid
+        private final float mix = RasterPlot.this.bounds.getMinX();
+        private final float miy = -RasterPlot.this.bounds.getMinY();
+        private final float scaleX = (float) RasterPlot.this.getScaleX();
+        private final float scaleY = -(float) RasterPlot.this.getScaleY();
+        private final int w = RasterPlot.this.resolution.width;
+        private final int h = RasterPlot.this.resolution.height;
+        private final ColoringRule rule = RasterPlot.this.coloringRule;
+        private final int[] plot = RasterPlot.this.plotPixels;
+        // and the same in double precision, as in Plotter.renderSolidDouble
+        private final boolean precise = RasterPlot.this.precision == Precision.DOUBLE;
+        private final DoubleBounds preciseBounds = RasterPlot.this.getDoubleBounds();
+        private final double pmix = preciseBounds.getMinX();
+        private final double pmiy = -preciseBounds.getMinY();
+        private final double pscaleX = preciseBounds.getSpanX() / w;
+        private final double pscaleY = -preciseBounds.getSpanY() / h;
+
+        void tile(int x0, int y0, int x1, int y1) {
+            row(y0, x0, x1);
+            if (y1 > y0) {
+                row(y1, x0, x1);
+            }
+            column(x0, y0 + 1, y1 - 1);
+            if (x1 > x0) {
+                column(x1, y0 + 1, y1 - 1);
+            }
+            subdivide(x0, y0, x1, y1);
+        }
+
+        /**
+         * Fills interior of a rectangle, whose border is already evaluated.
+         */
+        private void subdivide(int x0, int y0, int x1, int y1) {
+            if (x1 - x0 < 2 || y1 - y0 < 2) {
+                return;
+            }
+            int color = plot[y0 * w + x0];
+            if (isUniform(color, x0, y0, x1, y1)) {
+                for (int y = y0 + 1; y < y1; y++) {
+                    Arrays.fill(plot, y * w + x0 + 1, y * w + x1, color);
+                }
+                return;
+            }
+            if (x1 - x0 <= MIN_SUBDIVISION_SIZE || y1 - y0 <= MIN_SUBDIVISION_SIZE) {
+                for (int y = y0 + 1; y < y1; y++) {
+                    row(y, x0 + 1, x1 - 1);
+                }
+                return;
+            }
+            int mx = (x0 + x1) >>> 1;
+            int my = (y0 + y1) >>> 1;
+            row(my, x0 + 1, x1 - 1);
+            column(mx, y0 + 1, my - 1);
+            column(mx, my + 1, y1 - 1);
+            subdivide(x0, y0, mx, my);
+            subdivide(mx, y0, x1, my);
+            subdivide(x0, my, mx, y1);
+            subdivide(mx, my, x1, y1);
+        }
+
+        private boolean isUniform(int color, int x0, int y0, int x1, int y1) {
+            int top = y0 * w;
+            int bottom = y1 * w;
+            for (int x = x0; x <= x1; x++) {
+                if (plot[top + x] != color || plot[bottom + x] != color) {
+                    return false;
+                }
+            }
+            for (int y = y0 + 1; y < y1; y++) {
+                if (plot[y * w + x0] != color || plot[y * w + x1] != color) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void row(int y, int x0, int x1) {
+            if (x1 < x0) {
+                return;
+            }
+            if (precise) {
+                rule.colorRow(pmiy + (double) y * pscaleY, pmix + (double) x0 * pscaleX, pscaleX,
+                        plot, y * w + x0, x1 - x0 + 1);
+            } else {
+                rule.colorRow(miy + (float) y * scaleY, mix + (float) x0 * scaleX, scaleX, plot, y * w + x0, x1 - x0 + 1);
+            }
+        }
+
+        private void column(int x, int y0, int y1) {
+            if (precise) {
+                double X = pmix + (double) x * pscaleX;
+                for (int y = y0; y <= y1; y++) {
+                    plot[y * w + x] = rule.colorFunction(X, pmiy + (double) y * pscaleY);
+                }
+                return;
+            }
+            float X = mix + (float) x * scaleX;
+            for (int y = y0; y <= y1; y++) {
+                plot[y * w + x] = rule.colorFunction(X, miy + (float) y * scaleY);
+            }
+        }
+    }
+
+    private class Plotter implements Callable<Void> {
+        private RenderMode mode;
+        private int index;
+        private long[] stats;
+        private long submitted;
+        private StopSignal signal = RasterPlot.this.renderSignal;
+        // points seen and points drawn (or counted) by this worker, segments seen and drawn for polylines
+        private long points, drawn, segments, drawnSegments;
+
+        Plotter(RenderMode mode, int index) {
+            this(mode, index, null, 0);
+        }
+
+        Plotter(RenderMode mode, int index, long[] stats, long submitted) {
+            this.mode = mode;
+            this.index = index;
+            this.stats = stats;
+            this.submitted = submitted;
+        }
+
+        /**
+         * Takes next work item of this worker.
+         *
+         * @return index of the item, or -1 if there are no items left or the render is stopped
+         */
+        private int next() {
+            int item = RasterPlot.this.scheduler.next(index);
+            if (item >= 0 && signal != null && signal.isStopped()) {
+                RasterPlot.this.workAbandoned = true;
+                return -1;
+            }
+            return item;
+        }
+
+        void renderSolid() {
+            if (RasterPlot.this.precision == Precision.DOUBLE) {
+                renderSolidDouble();
+                return;
+            }
+            // bring variables even closer
+            float mix = RasterPlot.this.bounds.getMinX();
+            float miy = -RasterPlot.this.bounds.getMinY();
+
+            float scaleX = (float) RasterPlot.this.getScaleX();
+            float scaleY = -(float) RasterPlot.this.getScaleY();
+
+            int w = (int) RasterPlot.this.getResolution().getWidth();
+            int x0 = RasterPlot.this.regionX0;
+            int y0 = RasterPlot.this.regionY0;
+            int length = RasterPlot.this.regionX1 - x0;
+            float rowX = mix + (float) x0 * scaleX;
+
+            ColoringRule rule = RasterPlot.this.coloringRule;
+            int[] plot = RasterPlot.this.plotPixels;
+            // bounding box is tracked only when whole rows are written, while they are still in cache
+            boolean track = RasterPlot.this.isFullRegion();
+            int back = RasterPlot.this.trackedBack;
+            resetBox();
+
+            ///
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    break;
+                }
+                y += y0;
+                rule.colorRow(miy + (float) y * scaleY, rowX, scaleX, plot, y * w + x0, length);
+                if (track) {
+                    scanRow(plot, y, w, back);
+                }
+            }
+            ///
+            if (track) {
+                mergeBox();
+            }
+        }
+
+        /**
+         * Same as <code>renderSolid</code>, with coordinates in double precision.
+         */
+        void renderSolidDouble() {
+            DoubleBounds bounds = RasterPlot.this.getDoubleBounds();
+            int w = RasterPlot.this.resolution.width;
+            double mix = bounds.getMinX();
+            double miy = -bounds.getMinY();
+            double scaleX = bounds.getSpanX() / w;
+            double scaleY = -bounds.getSpanY() / RasterPlot.this.resolution.height;
+
+            int x0 = RasterPlot.this.regionX0;
+            int y0 = RasterPlot.this.regionY0;
+            int length = RasterPlot.this.regionX1 - x0;
+            double rowX = mix + (double) x0 * scaleX;
+
+            ColoringRule rule = RasterPlot.this.coloringRule;
+            int[] plot = RasterPlot.this.plotPixels;
+            boolean track = RasterPlot.this.isFullRegion();
+            int back = RasterPlot.this.trackedBack;
+            resetBox();
+
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    break;
+                }
+                y += y0;
+                rule.colorRow(miy + (double) y * scaleY, rowX, scaleX, plot, y * w + x0, length);
+                if (track) {
+                    scanRow(plot, y, w, back);
+                }
+            }
+            if (track) {
+                mergeBox();
+            }
+        }
+
+        void exportRaw() {
+            int w = RasterPlot.this.resolution.width;
+            int type = RasterPlot.this.imageType;
+            int[] plot = RasterPlot.this.plotPixels;
+            RawFormat format = RasterPlot.this.rawFormat;
+            int y0 = RasterPlot.this.rawY0;
+            ByteBuffer buffer = RasterPlot.this.rawBuffer.duplicate();
+            // 4-byte formats are written as big-endian ints, RGBA by rotating ARGB
+            IntBuffer ints = format.getBytesPerPixel() == 4 ? buffer.asIntBuffer() : null;
+            boolean copy = format == RawFormat.ARGB && type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_BGR;
+            int[] row = new int[w];
+            byte[] bytes = ints == null ? new byte[3 * w] : null;
+
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    return;
+                }
+                y += y0;
+                int offset = y * w;
+                if (ints != null) {
+                    IntBuffer target = ints.duplicate();
+                    target.position((y - y0) * w);
+                    if (copy) {
+                        target.put(plot, offset, w);
+                        continue;
+                    }
+                    for (int x = 0; x < w; x++) {
+                        int c = toArgb(plot[offset + x], type);
+                        row[x] = format == RawFormat.ARGB ? c : c << 8 | c >>> 24;
+                    }
+                    target.put(row);
+                } else {
+                    for (int x = 0, i = 0; x < w; x++) {
+                        int c = toArgb(plot[offset + x], type);
+                        bytes[i++] = (byte) (c >>> 16);
+                        bytes[i++] = (byte) (c >>> 8);
+                        bytes[i++] = (byte) c;
+                    }
+                    ByteBuffer target = buffer.duplicate();
+                    target.position((y - y0) * bytes.length);
+                    target.put(bytes);
+                }
+            }
+        }
+
+        void importRaw() {
+            int w = RasterPlot.this.resolution.width;
+            int type = RasterPlot.this.imageType;
+            int[] plot = RasterPlot.this.plotPixels;
+            RawFormat format = RasterPlot.this.rawFormat;
+            int y0 = RasterPlot.this.rawY0;
+            ByteBuffer buffer = RasterPlot.this.rawBuffer.duplicate();
+            IntBuffer ints = format.getBytesPerPixel() == 4 ? buffer.asIntBuffer() : null;
+            boolean copy = format == RawFormat.ARGB && type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_BGR;
+            int[] row = new int[w];
+            byte[] bytes = ints == null ? new byte[3 * w] : null;
+
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    return;
+                }
+                y += y0;
+                int offset = y * w;
+                if (ints != null) {
+                    IntBuffer source = ints.duplicate();
+                    source.position((y - y0) * w);
+                    if (copy) {
+                        source.get(plot, offset, w);
+                        continue;
+                    }
+                    source.get(row);
+                    for (int x = 0; x < w; x++) {
+                        int c = format == RawFormat.ARGB ? row[x] : row[x] >>> 8 | row[x] << 24;
+                        plot[offset + x] = fromArgb(c, type);
+                    }
+                } else {
+                    ByteBuffer source = buffer.duplicate();
+                    source.position((y - y0) * bytes.length);
+                    source.get(bytes);
+                    for (int x = 0, i = 0; x < w; x++, i += 3) {
+                        int c = 0xFF000000 | (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | bytes[i + 2] & 0xFF;
+                        plot[offset + x] = fromArgb(c, type);
+                    }
+                }
+            }
+        }
+
+        void findBoundingBox() {
+            int w = RasterPlot.this.resolution.width;
+            int back = RasterPlot.this.trackedBack;
+            int[] plot = RasterPlot.this.plotPixels;
+            resetBox();
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    break;
+                }
+                scanRow(plot, y, w, back);
+            }
+            mergeBox();
+        }
+
+        // bounding box of pixels not of back color, found by this worker
+        private int boxMinX, boxMinY, boxMaxX, boxMaxY;
+        private boolean boxExact;
+
+        private void resetBox() {
+            boxMinX = boxMinY = Integer.MAX_VALUE;
+            boxMaxX = boxMaxY = -1;
+            boxExact = true;
         }
 
-        // init work pool
-        pool.set(workSize);
+        private void mergeBox() {
+            RasterPlot.this.mergeRenderBox(boxMinX, boxMinY, boxMaxX, boxMaxY, boxExact);
+        }
 
-        // start threads
-        ArrayList<Future<?>> futures = new ArrayList<>();
-        for (int i = 0; i < threadCount; i++) {
-            futures.add(threadPool.submit(new Plotter(mode)));
+        /**
+         * Adds pixels of row <code>y</code> which are not of color <code>back</code> to the bounding box.
+         * Each pixel of the row is looked at no more than once.
+         */
+        private void scanRow(int[] plot, int y, int w, int back) {
+            int offset = y * w;
+            int left = 0;
+            while (left < w && plot[offset + left] == back) {
+                left++;
+            }
+            if (left == w) {
+                return;
+            }
+            if (left < boxMinX) {
+                boxMinX = left;
+            }
+            if (left > boxMaxX) {
+                boxMaxX = left;
+            }
+            // only pixels to the right of the box can extend it
+            for (int x = w - 1; x > boxMaxX; x--) {
+                if (plot[offset + x] != back) {
+                    boxMaxX = x;
+                    break;
+                }
+            }
+            if (y < boxMinY) {
+                boxMinY = y;
+            }
+            if (y > boxMaxY) {
+                boxMaxY = y;
+            }
         }
 
-        // wait for threads to complete
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException ignored) {
+        void renderAdaptive() {
+            Subdivision subdivision = new Subdivision();
+            int size = RasterPlot.this.adaptiveTileSize;
+            int tilesX = (subdivision.w + size - 1) / size;
+            while (true) {
+                int t = next();
+                if (t < 0) {
+                    return;
+                }
+                int x0 = (t % tilesX) * size;
+                int y0 = (t / tilesX) * size;
+                subdivision.tile(x0, y0, Math.min(x0 + size, subdivision.w) - 1, Math.min(y0 + size, subdivision.h) - 1);
             }
         }
 
-        plot.flush();
-    }
+        void renderProgressive() {
+            // the same mapping of pixels to coordinates as in renderSolid
+            float mix = RasterPlot.this.bounds.getMinX();
+            float miy = -RasterPlot.this.bounds.getMinY();
+            float scaleX = (float) RasterPlot.this.getScaleX();
+            float scaleY = -(float) RasterPlot.this.getScaleY();
 
-    double getScaleX() {
-        return bounds.getSpanX() / resolution.getWidth();
-    }
+            int w = RasterPlot.this.resolution.width;
+            int h = RasterPlot.this.resolution.height;
+            // and as in renderSolidDouble
+            boolean precise = RasterPlot.this.precision == Precision.DOUBLE;
+            DoubleBounds preciseBounds = RasterPlot.this.getDoubleBounds();
+            double pmix = preciseBounds.getMinX();
+            double pmiy = -preciseBounds.getMinY();
+            double pscaleX = preciseBounds.getSpanX() / w;
+            double pscaleY = -preciseBounds.getSpanY() / h;
+            int step = RasterPlot.this.progressiveStep;
+            boolean first = step == PROGRESSIVE_STEPS[0];
 
-    double getScaleY() {
-        return bounds.getSpanY() / resolution.getHeight();
-    }
+            ColoringRule rule = RasterPlot.this.coloringRule;
+            int[] plot = RasterPlot.this.plotPixels;
+            int[] row = new int[(w + step - 1) / step];
+
+            while (true) {
+                int r = next();
+                if (r < 0) {
+                    return;
+                }
+                if (boundsChanged()) {
+                    RasterPlot.this.progressiveAborted = true;
+                    return;
+                }
+                int y = r * step;
+                // rows computed by the previous pass already have every other sample of this pass
+                boolean oldRow = !first && y % (2 * step) == 0;
+                int x0 = oldRow ? step : 0;
+                int dx = oldRow ? 2 * step : step;
+                int n = (w - x0 + dx - 1) / dx;
+                if (n <= 0) {
+                    continue;
+                }
+                if (precise) {
+                    rule.colorRow(pmiy + (double) y * pscaleY, pmix + (double) x0 * pscaleX, (double) dx * pscaleX,
+                            row, 0, n);
+                } else {
+                    rule.colorRow(miy + (float) y * scaleY, mix + (float) x0 * scaleX, (float) dx * scaleX, row, 0, n);
+                }
+                int blockH = Math.min(step, h - y);
+                for (int i = 0; i < n; i++) {
+                    int x = x0 + i * dx;
+                    int blockW = Math.min(step, w - x);
+                    for (int by = 0; by < blockH; by++) {
+                        int offset = (y + by) * w + x;
+                        for (int bx = 0; bx < blockW; bx++) {
+                            plot[offset + bx] = row[i];
+                        }
+                    }
+                }
+            }
+        }
+
+        void renderSupersampled() {
+            // the same mapping of pixels to coordinates as in renderSolid;
+            // samples are spread evenly around the point renderSolid would take
+            float mix = RasterPlot.this.bounds.getMinX();
+            float miy = -RasterPlot.this.bounds.getMinY();
+            float scaleX = (float) RasterPlot.this.getScaleX();
+            float scaleY = -(float) RasterPlot.this.getScaleY();
 
-    private enum FinderMode {MIN_X, MAX_X, MIN_Y, MAX_Y}
+            int w = RasterPlot.this.resolution.width;
+            // and as in renderSolidDouble
+            boolean precise = RasterPlot.this.precision == Precision.DOUBLE;
+            DoubleBounds preciseBounds = RasterPlot.this.getDoubleBounds();
+            double pmix = preciseBounds.getMinX();
+            double pmiy = -preciseBounds.getMinY();
+            double pscaleX = preciseBounds.getSpanX() / w;
+            double pscaleY = -preciseBounds.getSpanY() / RasterPlot.this.resolution.height;
+            int n = RasterPlot.this.supersampling;
+            int total = n * n;
+            boolean jittered = RasterPlot.this.jitteredSampling;
+            float cell = 1f / n;
+            float first = cell / 2 - 0.5f;
+
+            ColoringRule rule = RasterPlot.this.coloringRule;
+            int[] plot = RasterPlot.this.plotPixels;
+            int[] colors = new int[w];
+            int[] a = new int[w], r = new int[w], g = new int[w], b = new int[w];
 
-    private enum RenderMode {SOLID, CHUNKS, CLEAR}
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    return;
+                }
+                Arrays.fill(a, 0);
+                Arrays.fill(r, 0);
+                Arrays.fill(g, 0);
+                Arrays.fill(b, 0);
+                // xorshift generator, seeded by row so the result does not depend on threads
+                int random = 0x9E3779B9 * (y + 1);
+                for (int j = 0; j < n; j++) {
+                    float sy = (float) y + first + j * cell;
+                    for (int i = 0; i < n; i++) {
+                        float sx = first + i * cell;
+                        if (jittered) {
+                            for (int x = 0; x < w; x++) {
+                                random ^= random << 13;
+                                random ^= random >>> 17;
+                                random ^= random << 5;
+                                float jx = ((random & 0xFFFF) / 65536f - 0.5f) * cell;
+                                float jy = ((random >>> 16) / 65536f - 0.5f) * cell;
+                                if (precise) {
+                                    colors[x] = rule.colorFunction(pmix + ((double) x + sx + jx) * pscaleX,
+                                            pmiy + ((double) sy + jy) * pscaleY);
+                                } else {
+                                    colors[x] = rule.colorFunction(mix + ((float) x + sx + jx) * scaleX,
+                                            miy + (sy + jy) * scaleY);
+                                }
+                            }
+                        } else if (precise) {
+                            rule.colorRow(pmiy + (double) sy * pscaleY, pmix + (double) sx * pscaleX, pscaleX,
+                                    colors, 0, w);
+                        } else {
+                            rule.colorRow(miy + sy * scaleY, mix + sx * scaleX, scaleX, colors, 0, w);
+                        }
+                        for (int x = 0; x < w; x++) {
+                            int c = colors[x];
+                            a[x] += c >>> 24;
+                            r[x] += (c >>> 16) & 0xFF;
+                            g[x] += (c >>> 8) & 0xFF;
+                            b[x] += c & 0xFF;
+                        }
+                    }
+                }
+                int half = total / 2;
+                for (int x = 0, offset = y * w; x < w; x++) {
+                    plot[offset + x] = ((a[x] + half) / total) << 24 | ((r[x] + half) / total) << 16 |
+                            ((g[x] + half) / total) << 8 | ((b[x] + half) / total);
+                }
+            }
+        }
 
-    private class BoxSideFinder implements Callable<Integer> {
+        private boolean boundsChanged() {
+            Bounds current = RasterPlot.this.bounds;
+            float[] snapshot = RasterPlot.this.progressiveSnapshot;
+            return current != RasterPlot.this.progressiveBounds ||
+                    current.getMinX() != snapshot[0] || current.getMinY() != snapshot[1] ||
+                    current.getMaxX() != snapshot[2] || current.getMaxY() != snapshot[3];
+        }
 
-        private int xSize;
-        private int ySize;
+        void zoomPreview() {
+            int w = RasterPlot.this.resolution.width;
+            int h = RasterPlot.this.resolution.height;
+            int back = RasterPlot.this.coloringRule.getBackColor();
+            int[] plot = RasterPlot.this.plotPixels;
+            int[] source = RasterPlot.this.previewPixels;
+            int[] columns = RasterPlot.this.previewColumns;
+            double origin = RasterPlot.this.previewOrigin;
+            double scale = RasterPlot.this.previewScale;
 
-        private FinderMode mode;
-        private int backColor;
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    return;
+                }
+                int sy = (int) Math.floor(origin + y * scale);
+                if (sy < 0 || sy >= h) {
+                    Arrays.fill(plot, y * w, y * w + w, back);
+                    continue;
+                }
+                for (int x = 0; x < w; x++) {
+                    int sx = columns[x];
+                    plot[y * w + x] = sx < 0 || sx >= w ? back : source[sy * w + sx];
+                }
+            }
+        }
 
-        BoxSideFinder(FinderMode mode, int backColor) {
-            this.ySize = resolution.height;
-            this.xSize = resolution.width;
-            this.mode = mode;
-            this.backColor = backColor;
+        // state of point rendering, shared by all modes which plot chunks of points
+        private float mix, max, miy, may;
+        private float scaleX, scaleY;
+        private int w, h1;
+        private ColoringRule rule;
+        private int[] plot;
+        private int[] counts;
+
+        // points which passed the bounds check are collected into these buffers and colored in batches
+        private float[] batch;
+        private int[] batchPixels;
+        private int[] batchRows;
+        private int[] batchColors;
+        private float[] block;
+        // polylines: pixels of segments are collected into the same batch, with their coverage when blended
+        private boolean lines, antialiased;
+        private float[] batchCoverage;
+        private int pending;
+        private float clipT0, clipT1;
+        // whether plotted points are added to the bounding box, and its back color
+        private boolean track;
+        private int back;
+
+        private void preparePoints() {
+            mix = RasterPlot.this.bounds.getMinX();
+            max = RasterPlot.this.bounds.getMaxX();
+            miy = RasterPlot.this.bounds.getMinY();
+            may = RasterPlot.this.bounds.getMaxY();
+
+            scaleX = (float) RasterPlot.this.getScaleX();
+            scaleY = (float) RasterPlot.this.getScaleY();
+
+            w = RasterPlot.this.resolution.width;
+            h1 = RasterPlot.this.resolution.height - 1;
+
+            rule = RasterPlot.this.getColoringRule();
+            plot = RasterPlot.this.plotPixels;
+
+            if (batch == null) {
+                batch = new float[2 * BATCH_SIZE];
+                batchPixels = new int[BATCH_SIZE];
+                batchRows = new int[BATCH_SIZE];
+                batchColors = new int[BATCH_SIZE];
+            }
         }
 
-        private int computeXMin() {
-            for (int i = 0; i < xSize; ++i) {
-                for (int j = ySize - 1; j >= 0; --j) {
-                    if (plotPixels[i + j * xSize] != backColor) {
-                        //if (plotPixels.get(i + j*xSize) != backColor) {
-                        return i;
+        /**
+         * Plots points <code>xy[from] .. xy[to - 1]</code>, <code>from</code> and <code>to</code> are even.
+         */
+        private void plotPoints(float[] xy, int from, int to) {
+            points += (to - from) >> 1;
+            int n = 0;
+            float X, Y;
+            ///
+            for (int x = from, y = from + 1; x < to; x += 2, y += 2) {
+                X = xy[x];
+                Y = xy[y];
+                if (X > mix && X < max && Y > miy && Y < may) {
+                    batch[2 * n] = X;
+                    batch[2 * n + 1] = Y;
+                    batchRows[n] = h1 - (int) ((Y - miy) / scaleY);
+                    batchPixels[n] = (int) ((X - mix) / scaleX) + batchRows[n] * w;
+                    if (++n == BATCH_SIZE) {
+                        flushBatch(n);
+                        n = 0;
                     }
                 }
             }
-            return 0;
+            flushBatch(n);
+            ///
         }
 
-        private int computeYMin() {
-            for (int i = 0; i < ySize; ++i) {
-                for (int j = xSize - 1; j >= 0; --j) {
-                    //if (plotPixels.get(j + i*xSize) != backColor) {
-                    if (plotPixels[j + i * xSize] != backColor) {
-                        return i;
+        private void flushBatch(int n) {
+            if (n == 0) {
+                return;
+            }
+            if (!lines) {
+                drawn += n;
+            }
+            rule.colorPoints(batch, 0, n, batchColors, 0);
+            if (antialiased) {
+                for (int i = 0; i < n; i++) {
+                    // the blended color is what ends up in the plot, so it is what the box is tracked by
+                    int color = blend(plot[batchPixels[i]], batchColors[i], batchCoverage[i]);
+                    plot[batchPixels[i]] = color;
+                    batchColors[i] = color;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    plot[batchPixels[i]] = batchColors[i];
+                }
+            }
+            if (track) {
+                for (int i = 0; i < n; i++) {
+                    if (batchColors[i] == back) {
+                        // a pixel of interest may have been erased, the box can't be trusted anymore
+                        boxExact = false;
+                        continue;
                     }
+                    int y = batchRows[i];
+                    int x = batchPixels[i] - y * w;
+                    if (x < boxMinX) boxMinX = x;
+                    if (x > boxMaxX) boxMaxX = x;
+                    if (y < boxMinY) boxMinY = y;
+                    if (y > boxMaxY) boxMaxY = y;
                 }
             }
-            return 0;
         }
 
-        private int computeXMax() {
-            for (int i = xSize - 1; i >= 0; --i) {
-                for (int j = ySize - 1; j >= 0; --j) {
-                    // if (plotPixels.get(i + j*xSize) != backColor) {
-                    if (plotPixels[i + j * xSize] != backColor) {
-                        return i;
+        /**
+         * Counts hits of points <code>xy[from] .. xy[to - 1]</code> in this worker's density buffer.
+         */
+        private void countPoints(float[] xy, int from, int to) {
+            float X, Y;
+            int hits = 0;
+            if (counts != null) {
+                for (int x = from, y = from + 1; x < to; x += 2, y += 2) {
+                    X = xy[x];
+                    Y = xy[y];
+                    if (X > mix && X < max && Y > miy && Y < may) {
+                        counts[(int) ((X - mix) / scaleX) + (h1 - (int) ((Y - miy) / scaleY)) * w]++;
+                        hits++;
+                    }
+                }
+            } else {
+                AtomicIntegerArray shared = RasterPlot.this.densityShared;
+                for (int x = from, y = from + 1; x < to; x += 2, y += 2) {
+                    X = xy[x];
+                    Y = xy[y];
+                    if (X > mix && X < max && Y > miy && Y < may) {
+                        shared.incrementAndGet((int) ((X - mix) / scaleX) + (h1 - (int) ((Y - miy) / scaleY)) * w);
+                        hits++;
                     }
                 }
             }
-            return xSize - 1;
+            points += (to - from) >> 1;
+            drawn += hits;
         }
 
-        private int computeYMax() {
-            for (int i = ySize - 1; i >= 0; --i) {
-                for (int j = xSize - 1; j >= 0; --j) {
-                    // if (plotPixels.get(j + i*xSize) != backColor) {
-                    if (plotPixels[j + i * xSize] != backColor) {
-                        return i;
+        /**
+         * Renders work unit <code>unit</code> of render chain, either plotting or counting its points.
+         */
+        private void renderUnit(int unit, boolean count) {
+            int target = RasterPlot.this.workTarget[unit];
+            int from = RasterPlot.this.workFrom[unit];
+            int to = RasterPlot.this.workTo[unit];
+            float[] xy;
+            ArrayList<float[]> chunks = RasterPlot.this.chunks;
+            if (target < 0) {
+                // points of the group in spatial index order, gathered a block at a time
+                GridIndex index = RasterPlot.this.spatialIndex;
+                int[] sorted = index.points(-target - 1);
+                int[] chunkStart = index.chunkStart(-target - 1);
+                int firstChunk = index.firstChunk(-target - 1);
+                // chunk of the last gathered point, points of a cell come chunk by chunk
+                int k = 0;
+                xy = chunks.get(firstChunk);
+                if (block == null) {
+                    block = new float[2 * BATCH_SIZE];
+                }
+                for (int i = from; i < to; i += BATCH_SIZE) {
+                    int n = Math.min(BATCH_SIZE, to - i);
+                    for (int j = 0; j < n; j++) {
+                        int p = sorted[i + j];
+                        if (p < chunkStart[k] || p >= chunkStart[k + 1]) {
+                            k = Arrays.binarySearch(chunkStart, p);
+                            k = k < 0 ? -k - 2 : k;
+                            // empty chunks share their start with the next one, and the search may find any of them
+                            while (chunkStart[k + 1] <= p) {
+                                k++;
+                            }
+                            xy = chunks.get(firstChunk + k);
+                        }
+                        p = 2 * (p - chunkStart[k]);
+                        block[2 * j] = xy[p];
+                        block[2 * j + 1] = xy[p + 1];
+                    }
+                    if (count) {
+                        countPoints(block, 0, 2 * n);
+                    } else {
+                        plotPoints(block, 0, 2 * n);
                     }
                 }
+                return;
+            } else if (target < chunks.size()) {
+                xy = chunks.get(target);
+            } else {
+                FloatBuffer segment = RasterPlot.this.sourceSegments.get(target - chunks.size());
+                if (segment.hasArray()) {
+                    xy = segment.array();
+                    from += segment.arrayOffset();
+                    to += segment.arrayOffset();
+                } else {
+                    // points are read straight from the buffer, staging only a small block at a time
+                    if (block == null) {
+                        block = new float[2 * BATCH_SIZE];
+                    }
+                    FloatBuffer view = segment.duplicate();
+                    view.position(from);
+                    for (int i = from; i < to; i += block.length) {
+                        int n = Math.min(block.length, to - i);
+                        view.get(block, 0, n);
+                        if (count) {
+                            countPoints(block, 0, n);
+                        } else {
+                            plotPoints(block, 0, n);
+                        }
+                    }
+                    return;
+                }
+            }
+            if (count) {
+                countPoints(xy, from, to);
+            } else {
+                plotPoints(xy, from, to);
             }
-            return ySize - 1;
         }
 
-        @Override
-        public Integer call() throws Exception {
+        void renderChunks() {
+            preparePoints();
+            track = true;
+            back = RasterPlot.this.trackedBack;
+            resetBox();
+            while (true) {
+                int unit = next();
+                if (unit < 0) {
+                    break;
+                }
+                renderUnit(unit, false);
+            }
+            mergeBox();
+        }
 
-            switch (mode) {
-                case MIN_X:
-                    return computeXMin();
-                case MAX_X:
-                    return computeXMax();
-                case MIN_Y:
-                    return computeYMin();
-                case MAX_Y:
-                    return computeYMax();
+        void renderPolylines() {
+            preparePoints();
+            lines = true;
+            antialiased = RasterPlot.this.antialiasedLines;
+            if (batchCoverage == null) {
+                batchCoverage = new float[BATCH_SIZE];
+            }
+            track = true;
+            back = RasterPlot.this.trackedBack;
+            resetBox();
+            while (true) {
+                int unit = next();
+                if (unit < 0) {
+                    break;
+                }
+                renderPolylineUnit(unit);
+            }
+            flushBatch(pending);
+            pending = 0;
+            mergeBox();
+        }
+
+        /**
+         * Draws segments which start at points of work unit <code>unit</code>; the last of them ends at the
+         * first point of the next unit of the same target.
+         */
+        private void renderPolylineUnit(int unit) {
+            int target = RasterPlot.this.workTarget[unit];
+            int from = RasterPlot.this.workFrom[unit];
+            int to = RasterPlot.this.workTo[unit];
+            // the point shared with the next unit is counted there
+            points += (to - from) >> 1;
+            ArrayList<float[]> chunks = RasterPlot.this.chunks;
+            if (target < chunks.size()) {
+                float[] xy = chunks.get(target);
+                drawPolyline(xy, from, Math.min(to + 2, xy.length), from > 0 && isFinite(xy, from - 2));
+                return;
+            }
+            FloatBuffer segment = RasterPlot.this.sourceSegments.get(target - chunks.size());
+            int end = Math.min(to + 2, segment.limit());
+            if (segment.hasArray()) {
+                int offset = segment.arrayOffset();
+                drawPolyline(segment.array(), from + offset, end + offset,
+                        from > 0 && isFinite(segment.array(), from - 2 + offset));
+                return;
             }
+            // staged a block at a time, consecutive blocks share a point so that no segment is lost
+            if (block == null) {
+                block = new float[2 * BATCH_SIZE];
+            }
+            FloatBuffer view = segment.duplicate();
+            boolean joined = from > 0 && Float.isFinite(view.get(from - 2)) && Float.isFinite(view.get(from - 1));
+            for (int i = from; i < end - 2; i += block.length - 2) {
+                int n = Math.min(block.length, end - i);
+                view.position(i);
+                view.get(block, 0, n);
+                joined = drawPolyline(block, 0, n, joined);
+            }
+        }
 
-            return 0;
+        private boolean isFinite(float[] xy, int point) {
+            return Float.isFinite(xy[point]) && Float.isFinite(xy[point + 1]);
         }
 
-    }
+        /**
+         * Draws segments between consecutive points of <code>xy[from] .. xy[to - 1]</code>.
+         *
+         * @param joined whether the first point ends a segment drawn before
+         * @return whether the last point ends a drawn segment
+         */
+        private boolean drawPolyline(float[] xy, int from, int to, boolean joined) {
+            for (int i = from; i + 3 < to; i += 2) {
+                joined = drawSegment(xy[i], xy[i + 1], xy[i + 2], xy[i + 3], joined);
+            }
+            return joined;
+        }
 
-    private class Plotter implements Runnable {
-        private RenderMode mode;
+        /**
+         * Draws segment from <code>(x0, y0)</code> to <code>(x1, y1)</code>, clipped to the plot. The segment is
+         * walked along its major axis one pixel at a time, so every pixel is visited once. If the segment is
+         * <code>joined</code> to the previous one and blended, its first pixel is left to that one, so that the
+         * joint is not blended twice.
+         *
+         * @return <code>false</code> if the segment is skipped because of a NaN coordinate
+         */
+        private boolean drawSegment(float x0, float y0, float x1, float y1, boolean joined) {
+            segments++;
+            // pixel space: u grows with x, v grows with y, the plot is [0, w] x [0, h1 + 1]
+            float u0 = (x0 - mix) / scaleX;
+            float v0 = (y0 - miy) / scaleY;
+            float du = (x1 - mix) / scaleX - u0;
+            float dv = (y1 - miy) / scaleY - v0;
+            if (Float.isNaN(u0 + v0 + du + dv)) {
+                return false;
+            }
+            // Liang-Barsky clipping
+            clipT0 = 0;
+            clipT1 = 1;
+            if (!clip(-du, u0) || !clip(du, w - u0) || !clip(-dv, v0) || !clip(dv, h1 + 1 - v0)) {
+                return true;
+            }
+            float t0 = clipT0, t1 = clipT1;
+            drawnSegments++;
+            // the previous segment ends in the same pixel, unless the start is clipped away
+            boolean skipStart = antialiased && joined && t0 == 0;
+            float dx = x1 - x0;
+            float dy = y1 - y0;
+            if (Math.abs(du) >= Math.abs(dv)) {
+                float a = u0 + t0 * du, b = u0 + t1 * du;
+                float lo = Math.min(a, b), hi = Math.max(a, b);
+                int c1 = Math.min((int) hi, w - 1);
+                int skipped = skipStart ? Math.min((int) u0, w - 1) : -1;
+                for (int c = Math.min((int) lo, w - 1); c <= c1; c++) {
+                    if (c == skipped) {
+                        continue;
+                    }
+                    // sample at the center of the column, or at the end of the segment within it
+                    float u = Math.max(lo, Math.min(hi, c + 0.5f));
+                    float t = du == 0 ? t0 : (u - u0) / du;
+                    linePixel(x0 + t * dx, y0 + t * dy, c, v0 + t * dv, true);
+                }
+            } else {
+                float a = v0 + t0 * dv, b = v0 + t1 * dv;
+                float lo = Math.min(a, b), hi = Math.max(a, b);
+                int r1 = Math.min((int) hi, h1);
+                int skipped = skipStart ? Math.min((int) v0, h1) : -1;
+                for (int r = Math.min((int) lo, h1); r <= r1; r++) {
+                    if (r == skipped) {
+                        continue;
+                    }
+                    float v = Math.max(lo, Math.min(hi, r + 0.5f));
+                    float t = (v - v0) / dv;
+                    linePixel(x0 + t * dx, y0 + t * dy, r, u0 + t * du, false);
+                }
+            }
+            return true;
+        }
 
-        Plotter(RenderMode mode) {
-            this.mode = mode;
+        /**
+         * Clips parameter range <code>clipT0 .. clipT1</code> of a segment by one edge of the plot.
+         *
+         * @return <code>false</code> if nothing of the segment is left
+         */
+        private boolean clip(float p, float q) {
+            if (p == 0) {
+                return q >= 0;
+            }
+            float r = q / p;
+            if (p < 0) {
+                if (r > clipT0) clipT0 = r;
+            } else {
+                if (r < clipT1) clipT1 = r;
+            }
+            return clipT0 <= clipT1;
         }
 
-        void renderSolid() {
-            // bring variables even closer
-            float mix = RasterPlot.this.bounds.getMinX();
-            float miy = -RasterPlot.this.bounds.getMinY();
+        /**
+         * Adds pixel (or two pixels, if anti-aliased) of a segment at <code>(X, Y)</code> to the batch.
+         *
+         * @param major pixel coordinate along the major axis of the segment
+         * @param minor exact coordinate along the other axis, in pixels
+         * @param xMajor whether the major axis is x
+         */
+        private void linePixel(float X, float Y, int major, float minor, boolean xMajor) {
+            int limit = xMajor ? h1 : w - 1;
+            if (!antialiased) {
+                addLinePixel(X, Y, major, Math.min((int) minor, limit), xMajor, 1);
+                return;
+            }
+            // Wu: the line covers two pixels across it, in proportion to its distance from their centers
+            float m = minor - 0.5f;
+            int base = (int) Math.floor(m);
+            float frac = m - base;
+            if (base >= 0 && base <= limit) {
+                addLinePixel(X, Y, major, base, xMajor, 1 - frac);
+            }
+            if (base + 1 >= 0 && base + 1 <= limit && frac > 0) {
+                addLinePixel(X, Y, major, base + 1, xMajor, frac);
+            }
+        }
 
-            float scaleX = (float) RasterPlot.this.getScaleX();
-            float scaleY = -(float) RasterPlot.this.getScaleY();
+        private void addLinePixel(float X, float Y, int major, int minor, boolean xMajor, float coverage) {
+            int col = xMajor ? major : minor;
+            int row = h1 - (xMajor ? minor : major);
+            int n = pending;
+            batch[2 * n] = X;
+            batch[2 * n + 1] = Y;
+            batchRows[n] = row;
+            batchPixels[n] = col + row * w;
+            batchCoverage[n] = coverage;
+            if (++n == BATCH_SIZE) {
+                flushBatch(n);
+                n = 0;
+            }
+            pending = n;
+        }
 
-            int w = (int) RasterPlot.this.getResolution().getWidth();
+        void renderStream() throws InterruptedException {
+            preparePoints();
+            BlockingQueue<float[]> queue = RasterPlot.this.streamQueue;
+            try {
+                while (true) {
+                    float[] chunk = queue.take();
+                    if (chunk == STREAM_END) {
+                        return;
+                    }
+                    plotPoints(chunk, 0, chunk.length);
+                }
+            } catch (RuntimeException e) {
+                // don't leave producers blocked on a queue that is not consumed anymore
+                queue.clear();
+                throw e;
+            }
+        }
 
-            ColoringRule rule = RasterPlot.this.coloringRule;
-            int[] plot = RasterPlot.this.plotPixels;
+        void accumulateDensity() {
+            preparePoints();
+            // threads beyond the buffered ones share a buffer
+            int[][] buffers = RasterPlot.this.densityBuffers;
+            counts = index < buffers.length ? buffers[index] : null;
+            while (true) {
+                int unit = next();
+                if (unit < 0) {
+                    return;
+                }
+                renderUnit(unit, true);
+            }
+        }
+
+        void mergeDensity() {
+            int w = RasterPlot.this.resolution.width;
+            int[][] buffers = RasterPlot.this.densityBuffers;
+            AtomicIntegerArray shared = RasterPlot.this.densityShared;
+            int[] merged = RasterPlot.this.densityCounts;
+            int localMax = 0;
+
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    break;
+                }
+                int from = y * w;
+                int to = from + w;
+                Arrays.fill(merged, from, to, 0);
+                for (int[] buffer : buffers) {
+                    for (int i = from; i < to; i++) {
+                        merged[i] += buffer[i];
+                        buffer[i] = 0;
+                    }
+                }
+                if (shared != null) {
+                    for (int i = from; i < to; i++) {
+                        merged[i] += shared.get(i);
+                        shared.set(i, 0);
+                    }
+                }
+                for (int i = from; i < to; i++) {
+                    if (merged[i] > localMax) {
+                        localMax = merged[i];
+                    }
+                }
+            }
+            RasterPlot.this.densityMax.accumulateAndGet(localMax, Math::max);
+        }
+
+        void densityHistogram() {
+            int w = RasterPlot.this.resolution.width;
+            int[] counts = RasterPlot.this.densityCounts;
+            int[] histogram = RasterPlot.this.densityHistograms[index];
+            int max = RasterPlot.this.densityMax.get();
 
-            ///
             while (true) {
-                int y = RasterPlot.this.pool.decrementAndGet();
+                int y = next();
                 if (y < 0) {
                     return;
                 }
-                for (int x = 0; x < w; x++) {
-                    //plot.put(x + y * w, rule.colorFunction(mix + (float) x * scaleX, miy + (float) y * scaleY));
-                    plot[x + y * w] = rule.colorFunction(mix + (float) x * scaleX, miy + (float) y * scaleY);
+                for (int i = y * w, to = i + w; i < to; i++) {
+                    if (counts[i] != 0) {
+                        histogram[densityBin(counts[i], max)]++;
+                    }
                 }
             }
-            ///
         }
 
-        void renderChunks() {
+        void toneMapDensity() {
+            int w = RasterPlot.this.resolution.width;
+            int[] counts = RasterPlot.this.densityCounts;
+            int[] plot = RasterPlot.this.plotPixels;
+            int[] lut = RasterPlot.this.densityLut;
+            float[] cdf = RasterPlot.this.densityCdf;
+            int max = RasterPlot.this.densityMax.get();
+            DensityTransfer transfer = RasterPlot.this.densityTransfer;
 
-            float mix = RasterPlot.this.bounds.getMinX();
-            float max = RasterPlot.this.bounds.getMaxX();
-            float miy = RasterPlot.this.bounds.getMinY();
-            float may = RasterPlot.this.bounds.getMaxY();
+            int top = DENSITY_LUT_SIZE - 1;
+            float linearScale = max == 0 ? 0 : (float) top / max;
+            float logScale = max == 0 ? 0 : (float) (top / Math.log1p(max));
 
-            float scaleX = (float) RasterPlot.this.getScaleX();
-            float scaleY = (float) RasterPlot.this.getScaleY();
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    return;
+                }
+                for (int i = y * w, to = i + w; i < to; i++) {
+                    int count = counts[i];
+                    if (count == 0) {
+                        plot[i] = lut[0];
+                        continue;
+                    }
+                    int level;
+                    switch (transfer) {
+                        case LINEAR:
+                            level = (int) (count * linearScale);
+                            break;
+                        case EQ_HIST:
+                            level = (int) (cdf[densityBin(count, max)] * top);
+                            break;
+                        case LOG:
+                        default:
+                            level = (int) (Math.log1p(count) * logScale);
+                    }
+                    // any hit at all has to be distinguishable from the background
+                    plot[i] = lut[level < 1 ? 1 : level];
+                }
+            }
+        }
 
+        void renderField() {
+            float mix = RasterPlot.this.bounds.getMinX();
+            float miy = -RasterPlot.this.bounds.getMinY();
+            float scaleX = (float) RasterPlot.this.getScaleX();
+            float scaleY = -(float) RasterPlot.this.getScaleY();
             int w = RasterPlot.this.resolution.width;
-            int h1 = RasterPlot.this.resolution.height - 1;
+            ScalarRule rule = RasterPlot.this.scalarRule;
+            float[] field = RasterPlot.this.field;
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+
+            while (true) {
+                int y = next();
+                if (y < 0) {
+                    break;
+                }
+                rule.valueRow(miy + (float) y * scaleY, mix, scaleX, field, y * w, w);
+                // extent of finite values, while the row is still in cache
+                for (int i = y * w, to = i + w; i < to; i++) {
+                    float v = field[i];
+                    if (v > Float.NEGATIVE_INFINITY && v < Float.POSITIVE_INFINITY) {
+                        if (v < min) min = v;
+                        if (v > max) max = v;
+                    }
+                }
+            }
+            float[] extent = RasterPlot.this.fieldExtent;
+            synchronized (extent) {
+                extent[0] = Math.min(extent[0], min);
+                extent[1] = Math.max(extent[1], max);
+            }
+        }
 
-            ColoringRule rule = RasterPlot.this.getColoringRule();
+        void mapField() {
+            int w = RasterPlot.this.resolution.width;
+            float[] field = RasterPlot.this.field;
             int[] plot = RasterPlot.this.plotPixels;
+            int[] lut = RasterPlot.this.palette.table();
+            int nanColor = RasterPlot.this.coloringRule.getBackColor();
+            float low = RasterPlot.this.mapLow;
+            float high = RasterPlot.this.mapHigh;
+
+            int top = lut.length - 1;
+            float scale = high > low ? lut.length / (high - low) : 0;
 
             while (true) {
-                int nextChunk = RasterPlot.this.pool.decrementAndGet();
-                if (nextChunk < 0) {
+                int y = next();
+                if (y < 0) {
                     return;
                 }
-                float[] chunk = RasterPlot.this.chunks.get(nextChunk);
-                int N = chunk.length;
-                float X, Y;
-                ///
-                for (int x = 0, y = 1; x < N; x += 2, y += 2) {
-                    X = chunk[x];
-                    Y = chunk[y];
-                    if (X > mix && X < max && Y > miy && Y < may) {
-//                        plot.put(
-//                                (int) ((X - mix) / scaleX) + (h1 - (int) ((Y - miy) / scaleY)) * w,
-//                                rule.colorFunction(X, Y)
-//                        );
-                        plot[(int) ((X - mix) / scaleX) + (h1 - (int) ((Y - miy) / scaleY)) * w] = rule.colorFunction(X, Y);
+                for (int i = y * w, to = i + w; i < to; i++) {
+                    float v = field[i];
+                    if (v != v) {
+                        plot[i] = nanColor;
+                        continue;
                     }
+                    // float to int conversion saturates, so infinities are clamped as well
+                    int level = (int) ((v - low) * scale);
+                    plot[i] = lut[level < 0 ? 0 : level > top ? top : level];
                 }
-                ///
             }
         }
 
@@ -705,7 +3644,7 @@ public class RasterPlot {
 
 
             while (true) {
-                int y = RasterPlot.this.pool.decrementAndGet();
+                int y = next();
                 if (y < 0) {
                     return;
                 }
@@ -716,7 +3655,8 @@ public class RasterPlot {
             }
         }
 
-        public void run() {
+        public Void call() throws Exception {
+            long start = stats == null ? 0 : System.nanoTime();
             switch (mode) {
                 case CLEAR: {
                     clear();
@@ -726,11 +3666,80 @@ public class RasterPlot {
                     renderChunks();
                     break;
                 }
+                case POLYLINES: {
+                    renderPolylines();
+                    break;
+                }
                 case SOLID: {
                     renderSolid();
                     break;
                 }
+                case DENSITY: {
+                    accumulateDensity();
+                    break;
+                }
+                case DENSITY_MERGE: {
+                    mergeDensity();
+                    break;
+                }
+                case DENSITY_HISTOGRAM: {
+                    densityHistogram();
+                    break;
+                }
+                case DENSITY_TONE_MAP: {
+                    toneMapDensity();
+                    break;
+                }
+                case STREAM: {
+                    renderStream();
+                    break;
+                }
+                case ZOOM_PREVIEW: {
+                    zoomPreview();
+                    break;
+                }
+                case ADAPTIVE: {
+                    renderAdaptive();
+                    break;
+                }
+                case PROGRESSIVE: {
+                    renderProgressive();
+                    break;
+                }
+                case SUPERSAMPLED: {
+                    renderSupersampled();
+                    break;
+                }
+                case BOUNDING_BOX: {
+                    findBoundingBox();
+                    break;
+                }
+                case RAW_EXPORT: {
+                    exportRaw();
+                    break;
+                }
+                case RAW_IMPORT: {
+                    importRaw();
+                    break;
+                }
+                case FIELD: {
+                    renderField();
+                    break;
+                }
+                case FIELD_MAP: {
+                    mapField();
+                    break;
+                }
+            }
+            if (stats != null) {
+                stats[WORKER_STATS * index] = start - submitted;
+                stats[WORKER_STATS * index + 1] = System.nanoTime() - start;
+                stats[WORKER_STATS * index + 2] = points;
+                stats[WORKER_STATS * index + 3] = drawn;
+                stats[WORKER_STATS * index + 4] = segments;
+                stats[WORKER_STATS * index + 5] = drawnSegments;
             }
+            return null;
         }
     }
 }
@@ -0,0 +1,168 @@
+package raster;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Uncompressed image formats, which <code>RasterPlot</code> can write and read at memory speed
+ * (see <code>RasterPlot.exportRaw</code>, <code>RasterPlot.saveRaw</code> and <code>RasterPlot.loadRaw</code>).
+ * Pixels are stored row by row, from the top row, 8 bits per channel.
+ */
+public enum RawFormat {
+    /**
+     * Bytes A, R, G, B of every pixel, without header: the same as big-endian ARGB ints.
+     */
+    ARGB(4),
+    /**
+     * Bytes R, G, B, A of every pixel, without header.
+     */
+    RGBA(4),
+    /**
+     * Binary portable pixmap (P6): text header, then bytes R, G, B of every pixel. Alpha is dropped.
+     */
+    PPM(3),
+    /**
+     * Portable arbitrary map (P7) of tuple type <code>RGB_ALPHA</code>: text header, then bytes R, G, B, A
+     * of every pixel.
+     */
+    PAM(4);
+
+    private final int bytesPerPixel;
+
+    RawFormat(int bytesPerPixel) {
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    /**
+     * @return Number of bytes of a pixel.
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * @return <code>true</code> if the format stores width and height of the image.
+     */
+    public boolean hasHeader() {
+        return this == PPM || this == PAM;
+    }
+
+    /**
+     * Computes size of an image in this format, header included.
+     *
+     * @param width  Width of the image.
+     * @param height Height of the image.
+     * @return Size, in bytes.
+     */
+    public long getSize(int width, int height) {
+        return header(width, height).length + (long) width * height * bytesPerPixel;
+    }
+
+    byte[] header(int width, int height) {
+        switch (this) {
+            case PPM:
+                return ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+            case PAM:
+                return ("P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH 4\nMAXVAL 255\n" +
+                        "TUPLTYPE RGB_ALPHA\nENDHDR\n").getBytes(StandardCharsets.US_ASCII);
+            default:
+                return new byte[0];
+        }
+    }
+
+    /**
+     * Reads header of an image in this format from <code>in</code>, leaving it positioned at the first pixel.
+     *
+     * @return {width, height}
+     * @throws IOException if the header is malformed or describes an image which can't be read
+     */
+    int[] readHeader(ByteBuffer in) throws IOException {
+        if (this == PPM) {
+            expect(in, "P6");
+            int width = number(token(in));
+            int height = number(token(in));
+            if (!"255".equals(token(in))) {
+                throw new IOException("Only PPM files with maximal value 255 are supported");
+            }
+            // single whitespace character separates the header from pixels
+            in.get();
+            return new int[]{width, height};
+        }
+        expect(in, "P7");
+        int width = -1, height = -1;
+        while (true) {
+            String key = token(in);
+            if ("ENDHDR".equals(key)) {
+                break;
+            }
+            String value = token(in);
+            switch (key) {
+                case "WIDTH":
+                    width = number(value);
+                    break;
+                case "HEIGHT":
+                    height = number(value);
+                    break;
+                case "DEPTH":
+                    if (!"4".equals(value)) throw new IOException("Only PAM files of depth 4 are supported");
+                    break;
+                case "MAXVAL":
+                    if (!"255".equals(value)) throw new IOException("Only PAM files with MAXVAL 255 are supported");
+                    break;
+                case "TUPLTYPE":
+                    if (!"RGB_ALPHA".equals(value)) throw new IOException("Only RGB_ALPHA PAM files are supported");
+                    break;
+                default:
+                    throw new IOException("Unknown PAM header field: " + key);
+            }
+        }
+        in.get();
+        if (width < 0 || height < 0) {
+            throw new IOException("PAM header has no WIDTH or HEIGHT");
+        }
+        return new int[]{width, height};
+    }
+
+    private static int number(String token) throws IOException {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed header: " + token, e);
+        }
+    }
+
+    private static void expect(ByteBuffer in, String magic) throws IOException {
+        if (!magic.equals(token(in))) {
+            throw new IOException("Not a " + magic + " file");
+        }
+    }
+
+    /**
+     * Reads next whitespace-separated token of a text header, skipping comments. The whitespace character
+     * after the token is not consumed.
+     */
+    private static String token(ByteBuffer in) throws IOException {
+        StringBuilder token = new StringBuilder();
+        while (in.hasRemaining()) {
+            int c = in.get(in.position()) & 0xFF;
+            if (c == '#' && token.length() == 0) {
+                while (in.hasRemaining() && in.get() != '\n') {
+                    // skip comment line
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (token.length() > 0) {
+                    return token.toString();
+                }
+                in.get();
+            } else {
+                token.append((char) c);
+                in.get();
+            }
+            if (token.length() > 64) {
+                break;
+            }
+        }
+        throw new IOException("Malformed header");
+    }
+}
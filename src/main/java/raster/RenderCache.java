@@ -0,0 +1,177 @@
+package raster;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of rendered buffers, which lets <code>RasterPlot</code> skip renders of views it has already rendered
+ * (see <code>RasterPlot.setRenderCache</code>). Buffers are keyed by bounds (in double precision), resolution,
+ * image type and precision of the plot, identity and version of the rule (see <code>ColoringRule.invalidate</code>)
+ * and the kind of render.
+ * <p>
+ * The cache holds at most <code>budget</code> bytes of buffers; when it is full, least recently used buffers
+ * are evicted. A single cache can be shared by several plots. Buffers are copied in and out, so a plot never
+ * sees changes made to another plot.
+ */
+public class RenderCache {
+
+    private final long budget;
+    private long size;
+    private long hits, misses, evictions;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Constructor for <code>RenderCache</code> class.
+     *
+     * @param budget Maximal total size of cached buffers, in bytes.
+     */
+    public RenderCache(long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Cache budget must not be negative");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * @return Maximal total size of cached buffers, in bytes.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return Total size of cached buffers, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return Number of cached buffers.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of renders served from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of renders not found in the cache.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of buffers evicted to stay within the budget.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes all buffers from the cache. Counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized Entry get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores <code>buffer</code> (<code>int[]</code> or <code>float[]</code>, not copied) under <code>key</code>,
+     * unless it is larger than the whole budget.
+     */
+    synchronized void put(Key key, Object buffer, float[] extent) {
+        long bytes = 4L * (buffer instanceof int[] ? ((int[]) buffer).length : ((float[]) buffer).length);
+        if (bytes > budget) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(buffer, extent, bytes));
+        if (previous != null) {
+            size -= previous.bytes;
+        }
+        size += bytes;
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (size > budget) {
+            size -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    static final class Entry {
+        final Object buffer;
+        final float[] extent;
+        final long bytes;
+
+        Entry(Object buffer, float[] extent, long bytes) {
+            this.buffer = buffer;
+            this.extent = extent;
+            this.bytes = bytes;
+        }
+    }
+
+    static final class Key {
+        private final double[] bounds;
+        private final int width, height, imageType;
+        private final Object rule;
+        private final long version;
+        private final Object mode;
+        private final Object precision;
+        private final int hash;
+
+        Key(double[] bounds, int width, int height, int imageType, Object rule, long version, Object mode,
+            Object precision) {
+            this.bounds = bounds;
+            this.width = width;
+            this.height = height;
+            this.imageType = imageType;
+            this.rule = rule;
+            this.version = version;
+            this.mode = mode;
+            this.precision = precision;
+            int h = Arrays.hashCode(bounds);
+            h = 31 * h + width;
+            h = 31 * h + height;
+            h = 31 * h + imageType;
+            h = 31 * h + System.identityHashCode(rule);
+            h = 31 * h + Long.hashCode(version);
+            h = 31 * h + mode.hashCode();
+            this.hash = 31 * h + precision.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            // rules are compared by identity: equal rules may still compute different colors
+            return rule == other.rule && version == other.version && mode == other.mode &&
+                    precision == other.precision && width == other.width && height == other.height &&
+                    imageType == other.imageType && Arrays.equals(bounds, other.bounds);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package raster;
+
+/**
+ * Listener of render passes, see <code>RasterPlot.addRenderListener</code>.
+ */
+public interface RenderListener {
+
+    /**
+     * Called after each render pass of the plot and after each encoding of its image by
+     * <code>RasterPlot.saveToFile</code>, from the thread which started it. Render passes are reported while
+     * the plot is locked, so the listener should return quickly and must not wait for other threads which
+     * use the plot.
+     *
+     * @param plot    plot which was rendered
+     * @param metrics measurements of the pass
+     */
+    void renderCompleted(RasterPlot plot, RenderMetrics metrics);
+}
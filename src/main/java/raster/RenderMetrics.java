@@ -0,0 +1,148 @@
+package raster;
+
+/**
+ * Measurements of a single render pass of <code>RasterPlot</code>, or of encoding its image, reported to
+ * <code>RenderListener</code>s. Passes are named after the work they do: <code>SOLID</code>, <code>CHUNKS</code>,
+ * <code>DENSITY</code>, <code>CLEAR</code> and so on for renders, <code>ENCODE</code> for
+ * <code>RasterPlot.saveToFile</code>. Some renders consist of several passes (e.g. density renders count hits
+ * and then tone-map them); each pass is reported separately.
+ * <p>
+ * Busy time of a worker is the time it spent on its share of the pass; queue wait is the time between
+ * submission of the worker and the moment it started, which grows when the executor is busy with other work.
+ */
+public final class RenderMetrics {
+
+    private final String pass;
+    private final long wallNanos;
+    private final long pixels;
+    private final long points;
+    private final long culledPoints;
+    private final long segments;
+    private final long culledSegments;
+    private final long[] workerBusyNanos;
+    private final long[] workerQueueWaitNanos;
+
+    RenderMetrics(String pass, long wallNanos, long pixels, long points, long culledPoints,
+                  long segments, long culledSegments, long[] workerBusyNanos, long[] workerQueueWaitNanos) {
+        this.pass = pass;
+        this.wallNanos = wallNanos;
+        this.pixels = pixels;
+        this.points = points;
+        this.culledPoints = culledPoints;
+        this.segments = segments;
+        this.culledSegments = culledSegments;
+        this.workerBusyNanos = workerBusyNanos;
+        this.workerQueueWaitNanos = workerQueueWaitNanos;
+    }
+
+    /**
+     * @return Name of the pass, e.g. <code>SOLID</code> or <code>ENCODE</code>.
+     */
+    public String getPass() {
+        return pass;
+    }
+
+    /**
+     * @return Time from the start of the pass to its end, in nanoseconds.
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return Time spent encoding, in nanoseconds; 0 for render passes.
+     */
+    public long getEncodeNanos() {
+        return "ENCODE".equals(pass) ? wallNanos : 0;
+    }
+
+    /**
+     * @return Number of pixels of the area processed by the pass; 0 for passes which plot points.
+     */
+    public long getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return Number of points processed by the pass; for polylines, number of their vertices.
+     */
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return Number of processed points which fell outside of bounds; 0 for polylines, which cull segments.
+     */
+    public long getCulledPoints() {
+        return culledPoints;
+    }
+
+    /**
+     * @return Number of line segments processed by the pass; 0 for passes which don't draw polylines.
+     */
+    public long getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return Number of processed segments which were entirely outside of bounds.
+     */
+    public long getCulledSegments() {
+        return culledSegments;
+    }
+
+    /**
+     * @return Number of workers of the pass.
+     */
+    public int getWorkerCount() {
+        return workerBusyNanos.length;
+    }
+
+    /**
+     * @return Busy time of each worker, in nanoseconds.
+     */
+    public long[] getWorkerBusyNanos() {
+        return workerBusyNanos.clone();
+    }
+
+    /**
+     * @return Queue wait of each worker, in nanoseconds.
+     */
+    public long[] getWorkerQueueWaitNanos() {
+        return workerQueueWaitNanos.clone();
+    }
+
+    /**
+     * @return The longest queue wait of a worker, in nanoseconds.
+     */
+    public long getQueueWaitNanos() {
+        long max = 0;
+        for (long wait : workerQueueWaitNanos) {
+            max = Math.max(max, wait);
+        }
+        return max;
+    }
+
+    /**
+     * Load imbalance of the pass: the longest busy time of a worker divided by the average one.
+     * 1 means that all workers were busy for the same time.
+     *
+     * @return imbalance, 1 or more; 1 if there were no workers
+     */
+    public double getImbalance() {
+        long max = 0, total = 0;
+        for (long busy : workerBusyNanos) {
+            max = Math.max(max, busy);
+            total += busy;
+        }
+        return total == 0 ? 1 : (double) max * workerBusyNanos.length / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.3f ms, %d pixels, %d points (%d culled), %d segments (%d culled), %d workers, " +
+                        "imbalance %.2f, queue wait %.3f ms",
+                pass, wallNanos / 1e6, pixels, points, culledPoints, segments, culledSegments, workerBusyNanos.length,
+                getImbalance(), getQueueWaitNanos() / 1e6);
+    }
+}
@@ -0,0 +1,164 @@
+package raster;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Totals of render metrics of one or several plots, exposed as a JMX MBean. Add it as a listener to every
+ * plot it should cover (e.g. all plots which share an executor) and register it:
+ * <pre>
+ *     RenderStats stats = new RenderStats();
+ *     plot.addRenderListener(stats);
+ *     stats.register("viewer");
+ * </pre>
+ */
+public class RenderStats implements RenderListener, RenderStatsMBean {
+
+    private long renderCount, totalRenderNanos, lastRenderNanos;
+    private String lastPass = "";
+    private long pixels, points, culledPoints, segments, culledSegments;
+    private double lastImbalance = 1, maxImbalance = 1;
+    private long lastQueueWaitNanos, maxQueueWaitNanos;
+    private long encodeCount, totalEncodeNanos, lastEncodeNanos;
+    private ObjectName name;
+
+    @Override
+    public synchronized void renderCompleted(RasterPlot plot, RenderMetrics metrics) {
+        if ("ENCODE".equals(metrics.getPass())) {
+            encodeCount++;
+            totalEncodeNanos += metrics.getEncodeNanos();
+            lastEncodeNanos = metrics.getEncodeNanos();
+            return;
+        }
+        renderCount++;
+        totalRenderNanos += metrics.getWallNanos();
+        lastRenderNanos = metrics.getWallNanos();
+        lastPass = metrics.getPass();
+        pixels += metrics.getPixels();
+        points += metrics.getPoints();
+        culledPoints += metrics.getCulledPoints();
+        segments += metrics.getSegments();
+        culledSegments += metrics.getCulledSegments();
+        lastImbalance = metrics.getImbalance();
+        maxImbalance = Math.max(maxImbalance, lastImbalance);
+        lastQueueWaitNanos = metrics.getQueueWaitNanos();
+        maxQueueWaitNanos = Math.max(maxQueueWaitNanos, lastQueueWaitNanos);
+    }
+
+    /**
+     * Registers these stats with the platform MBean server as <code>raster:type=RenderStats,name=name</code>.
+     *
+     * @param name Name of the stats, e.g. name of the plot or of the executor.
+     * @return Name of the MBean.
+     * @throws JMException if the MBean can't be registered, e.g. because the name is taken
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("raster:type=RenderStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Removes these stats from the platform MBean server, if they are registered.
+     *
+     * @throws JMException if the MBean can't be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+    @Override
+    public synchronized long getRenderCount() {
+        return renderCount;
+    }
+
+    @Override
+    public synchronized double getTotalRenderMillis() {
+        return totalRenderNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastRenderMillis() {
+        return lastRenderNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String getLastPass() {
+        return lastPass;
+    }
+
+    @Override
+    public synchronized long getPixels() {
+        return pixels;
+    }
+
+    @Override
+    public synchronized long getPoints() {
+        return points;
+    }
+
+    @Override
+    public synchronized long getCulledPoints() {
+        return culledPoints;
+    }
+
+    @Override
+    public synchronized long getSegments() {
+        return segments;
+    }
+
+    @Override
+    public synchronized long getCulledSegments() {
+        return culledSegments;
+    }
+
+    @Override
+    public synchronized double getLastImbalance() {
+        return lastImbalance;
+    }
+
+    @Override
+    public synchronized double getMaxImbalance() {
+        return maxImbalance;
+    }
+
+    @Override
+    public synchronized double getLastQueueWaitMillis() {
+        return lastQueueWaitNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getMaxQueueWaitMillis() {
+        return maxQueueWaitNanos / 1e6;
+    }
+
+    @Override
+    public synchronized long getEncodeCount() {
+        return encodeCount;
+    }
+
+    @Override
+    public synchronized double getTotalEncodeMillis() {
+        return totalEncodeNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastEncodeMillis() {
+        return lastEncodeNanos / 1e6;
+    }
+
+    @Override
+    public synchronized void reset() {
+        renderCount = totalRenderNanos = lastRenderNanos = 0;
+        lastPass = "";
+        pixels = points = culledPoints = segments = culledSegments = 0;
+        lastImbalance = maxImbalance = 1;
+        lastQueueWaitNanos = maxQueueWaitNanos = 0;
+        encodeCount = totalEncodeNanos = lastEncodeNanos = 0;
+    }
+}
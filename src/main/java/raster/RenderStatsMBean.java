@@ -0,0 +1,41 @@
+package raster;
+
+/**
+ * Management interface of <code>RenderStats</code>.
+ */
+public interface RenderStatsMBean {
+
+    long getRenderCount();
+
+    double getTotalRenderMillis();
+
+    double getLastRenderMillis();
+
+    String getLastPass();
+
+    long getPixels();
+
+    long getPoints();
+
+    long getCulledPoints();
+
+    long getSegments();
+
+    long getCulledSegments();
+
+    double getLastImbalance();
+
+    double getMaxImbalance();
+
+    double getLastQueueWaitMillis();
+
+    double getMaxQueueWaitMillis();
+
+    long getEncodeCount();
+
+    double getTotalEncodeMillis();
+
+    double getLastEncodeMillis();
+
+    void reset();
+}
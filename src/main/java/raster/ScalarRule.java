@@ -0,0 +1,57 @@
+package raster;
+
+/**
+ * Rule which maps points of the plane to scalar values instead of colors. <code>RasterPlot</code> stores values
+ * computed by this rule in a field buffer (see <code>RasterPlot.renderField</code>) and turns them into colors
+ * with a <code>Palette</code> in a separate pass, so that changing the palette or the value range does not
+ * evaluate the rule again.
+ */
+public abstract class ScalarRule {
+
+    private volatile long version;
+
+    /**
+     * @return Version of this rule, which changes every time <code>invalidate</code> is called.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Tells that values computed by this rule have changed, e.g. because its parameters were modified.
+     * Fields rendered with earlier versions of the rule are not reused after this call
+     * (see <code>RasterPlot.setRenderCache</code>).
+     */
+    public synchronized void invalidate() {
+        version++;
+    }
+
+    /**
+     * This function is used by <code>RasterPlot</code> class to determine the value at point with
+     * coordinates (x, y). NaN marks points where the value is undefined; they get back color of the
+     * coloring rule of the plot.
+     *
+     * @param x - x-coordinate
+     * @param y - y-coordinate
+     * @return Resulting value.
+     */
+    public abstract float valueFunction(float x, float y);
+
+    /**
+     * Batch form of <code>valueFunction</code>, used by <code>RasterPlot</code> to fill a whole row of the field
+     * at once. Point <code>i</code> of the row has coordinates (<code>x0 + i * dx</code>, <code>y</code>).
+     * The default implementation calls <code>valueFunction</code> for every point.
+     *
+     * @param y      - y-coordinate of the row
+     * @param x0     - x-coordinate of the first point
+     * @param dx     - step between two adjacent points
+     * @param out    - destination array
+     * @param offset - index in <code>out</code> of the first point
+     * @param length - number of points
+     */
+    public void valueRow(float y, float x0, float dx, float[] out, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = valueFunction(x0 + (float) i * dx, y);
+        }
+    }
+}
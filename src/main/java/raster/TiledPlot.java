@@ -0,0 +1,732 @@
+package raster;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The <code>TiledPlot</code> class is a plot plane which is split into square tiles, each backed by its own
+ * pixel array. Unlike <code>RasterPlot</code>, it is not limited by the size of a single array, so it is suitable
+ * for gigapixel plots. Tiles are allocated lazily, when something is drawn on them; a tile which was never
+ * touched is filled with the color the plot was last cleared with, and takes no memory.
+ * <p>
+ * <code>RasterPlot</code> itself stays backed by a single <code>BufferedImage</code>, which its API hands out
+ * (<code>getPlot</code>) and which can't be tiled; this class is the tiled counterpart of its render paths. It maps
+ * pixels to plane coordinates in the same way, so both classes draw the same image of the same data, and splits
+ * chunks between threads in ranges of <code>chunkGrainSize</code> points as well.
+ * <p>
+ * Pixels are in ARGB color model (0xAARRGGBB).
+ */
+public class TiledPlot implements AutoCloseable {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+
+    private AtomicReferenceArray<int[]> tiles;
+    private int clearColor;
+
+    private ArrayList<float[]> chunks = new ArrayList<>();
+    private int chunkGrainSize = 1 << 16;
+
+    private ColoringRule coloringRule;
+    private Bounds bounds;
+
+    private int maxThreadCount;
+    private ExecutorService threadPool;
+    private boolean ownsThreadPool;
+    private WorkScheduler scheduler = new WorkScheduler();
+
+    /**
+     * Constructor for <code>TiledPlot</code> class.
+     *
+     * @param width  Width of plot plane, in pixels.
+     * @param height Height of plot plane, in pixels.
+     */
+    public TiledPlot(int width, int height) {
+        this(width, height, DEFAULT_TILE_SIZE, Bounds.createDefaultBounds(), ColoringRule.createDefaultColoringRule());
+    }
+
+    /**
+     * Constructor for <code>TiledPlot</code> class.
+     *
+     * @param width        Width of plot plane, in pixels.
+     * @param height       Height of plot plane, in pixels.
+     * @param tileSize     Width and height of a single tile, in pixels. Must be even.
+     * @param bounds       Bounds of the plot plane.
+     * @param coloringRule Coloring rule.
+     */
+    public TiledPlot(int width, int height, int tileSize, Bounds bounds, ColoringRule coloringRule) {
+        if (tileSize <= 0 || tileSize % 2 != 0) {
+            throw new IllegalArgumentException("Tile size must be positive and even: " + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.tiles = new AtomicReferenceArray<>(tilesX * tilesY);
+        setBounds(bounds);
+        setColoringRule(coloringRule);
+        this.clearColor = coloringRule.getBackColor();
+        setMaxThreadCount(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * This function puts a chunk of float data to a render chain, see <code>RasterPlot.putChunk</code>.
+     *
+     * @param xy float array {x1, y1, ... xN, yN}
+     * @return this
+     */
+    public synchronized TiledPlot putChunk(float[] xy) {
+        if (xy.length % 2 == 0) this.chunks.add(xy);
+        return this;
+    }
+
+    /**
+     * Clears render chain of TiledPlot.
+     *
+     * @return this
+     */
+    public synchronized TiledPlot clearData() {
+        this.chunks.clear();
+        return this;
+    }
+
+    /**
+     * Fills whole plot plane with colors determined by <code>ColoringRule</code>. All tiles get allocated, so this
+     * takes <code>4 * width * height</code> bytes of heap; for plots which don't fit into heap,
+     * use <code>writeSolidTiles</code>.
+     *
+     * @return this
+     */
+    public synchronized TiledPlot renderSolid() throws ExecutionException {
+        ColoringRule rule = coloringRule;
+        parallel(tilesX * tilesY, maxThreadCount, () -> t -> solidTile(rule, t, tile(t)));
+        return this;
+    }
+
+    /**
+     * Fills whole plot plane with colors determined by <code>ColoringRule</code>, like <code>renderSolid</code>,
+     * but writes every tile to file <code>dir/{tx}_{ty}.{format}</code> (as <code>writeTiles</code> does) as soon
+     * as it is computed, instead of keeping it. Each render thread holds a single tile at a time, so heap used
+     * does not depend on the size of the plot. Tiles of this plot are not changed.
+     *
+     * @param dir    directory to write tiles to
+     * @param format image format
+     * @return this
+     */
+    public synchronized TiledPlot writeSolidTiles(File dir, String format) throws IOException, ExecutionException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        ColoringRule rule = coloringRule;
+        try {
+            parallel(tilesX * tilesY, maxThreadCount, () -> {
+                // reused for every tile of this thread
+                BufferedImage image = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB);
+                int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                return t -> {
+                    solidTile(rule, t, pixels);
+                    int tx = t % tilesX;
+                    int ty = t / tilesX;
+                    int tw = Math.min(tileSize, width - tx * tileSize);
+                    int th = Math.min(tileSize, height - ty * tileSize);
+                    try {
+                        ImageIO.write(image.getSubimage(0, 0, tw, th), format,
+                                new File(dir, tx + "_" + ty + "." + format));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+            });
+        } catch (ExecutionException e) {
+            throw unwrapIO(e);
+        }
+        return this;
+    }
+
+    /**
+     * Computes pixels of tile number <code>t</code> into <code>tile</code>, rows of which are
+     * <code>tileSize</code> pixels apart.
+     */
+    private void solidTile(ColoringRule rule, int t, int[] tile) {
+        // the same mapping of pixels to coordinates as in RasterPlot.renderSolid
+        float mix = bounds.getMinX();
+        float miy = -bounds.getMinY();
+        float scaleX = (float) getScaleX();
+        float scaleY = -(float) getScaleY();
+        int x0 = (t % tilesX) * tileSize;
+        int y0 = (t / tilesX) * tileSize;
+        int tw = Math.min(tileSize, width - x0);
+        int th = Math.min(tileSize, height - y0);
+        for (int y = 0; y < th; y++) {
+            rule.colorRow(miy + (float) (y0 + y) * scaleY, mix + (float) x0 * scaleX, scaleX, tile, y * tileSize, tw);
+        }
+    }
+
+    /**
+     * Renders all chunks that currently are in render chain, drawing each point according to current
+     * coloring rule and bounds. Only tiles which are hit by points get allocated. Chunks larger than
+     * <code>chunkGrainSize</code> points are split into ranges, which are spread over all render threads.
+     *
+     * @return this
+     */
+    public synchronized TiledPlot renderChunks() throws ExecutionException {
+        // ranges of about chunkGrainSize points, as in RasterPlot
+        int units = 0;
+        for (float[] chunk : chunks) {
+            units += parts(chunk.length / 2);
+        }
+        int[] unitChunk = new int[units];
+        int[] unitFrom = new int[units];
+        int[] unitTo = new int[units];
+        units = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            int length = chunks.get(c).length / 2;
+            int parts = parts(length);
+            for (int part = 0; part < parts; part++, units++) {
+                unitChunk[units] = c;
+                unitFrom[units] = 2 * (int) ((long) length * part / parts);
+                unitTo[units] = 2 * (int) ((long) length * (part + 1) / parts);
+            }
+        }
+        float mix = bounds.getMinX();
+        float max = bounds.getMaxX();
+        float miy = bounds.getMinY();
+        float may = bounds.getMaxY();
+        float scaleX = (float) getScaleX();
+        float scaleY = (float) getScaleY();
+        int h1 = height - 1;
+        ColoringRule rule = coloringRule;
+        parallel(units, Math.min(units, maxThreadCount), () -> {
+            float[] batch = new float[2 * BATCH_SIZE];
+            int[] batchTiles = new int[BATCH_SIZE];
+            int[] batchPixels = new int[BATCH_SIZE];
+            int[] batchColors = new int[BATCH_SIZE];
+            return u -> {
+                float[] chunk = chunks.get(unitChunk[u]);
+                int n = 0;
+                for (int i = unitFrom[u]; i < unitTo[u]; i += 2) {
+                    float X = chunk[i];
+                    float Y = chunk[i + 1];
+                    if (X > mix && X < max && Y > miy && Y < may) {
+                        int px = (int) ((X - mix) / scaleX);
+                        int py = h1 - (int) ((Y - miy) / scaleY);
+                        if (px >= width || py < 0) {
+                            continue;
+                        }
+                        batch[2 * n] = X;
+                        batch[2 * n + 1] = Y;
+                        batchTiles[n] = (py / tileSize) * tilesX + px / tileSize;
+                        batchPixels[n] = (py % tileSize) * tileSize + px % tileSize;
+                        if (++n == BATCH_SIZE) {
+                            rule.colorPoints(batch, 0, n, batchColors, 0);
+                            for (int j = 0; j < n; j++) {
+                                tile(batchTiles[j])[batchPixels[j]] = batchColors[j];
+                            }
+                            n = 0;
+                        }
+                    }
+                }
+                if (n > 0) {
+                    rule.colorPoints(batch, 0, n, batchColors, 0);
+                    for (int j = 0; j < n; j++) {
+                        tile(batchTiles[j])[batchPixels[j]] = batchColors[j];
+                    }
+                }
+            };
+        });
+        return this;
+    }
+
+    /**
+     * Clears plot with back color of current coloring rule. All tiles are released.
+     *
+     * @return this
+     */
+    public synchronized TiledPlot clearPlot() {
+        this.clearColor = coloringRule.getBackColor();
+        this.tiles = new AtomicReferenceArray<>(tilesX * tilesY);
+        return this;
+    }
+
+    /**
+     * Computes bounding box of all pixels, which differ from back color of current coloring rule.
+     *
+     * @return {xMin, yMin, xMax, yMax}, in pixels
+     */
+    public int[] computePixelBoundingBox() throws ExecutionException {
+        return computePixelBoundingBox(coloringRule.getBackColor());
+    }
+
+    /**
+     * Computes bounding box of all pixels, which differ from <code>backColor</code>. Tiles which were never
+     * touched are not scanned. If there are no such pixels, returns the box of the whole plot.
+     *
+     * @param backColor Color of the background.
+     * @return {xMin, yMin, xMax, yMax}, in pixels
+     */
+    public synchronized int[] computePixelBoundingBox(int backColor) throws ExecutionException {
+        int[] box = {Integer.MAX_VALUE, Integer.MAX_VALUE, -1, -1};
+        boolean untouchedIsBack = clearColor == backColor;
+        parallel(tilesX * tilesY, maxThreadCount, () -> t -> {
+            int[] tile = tiles.get(t);
+            if (tile == null && untouchedIsBack) {
+                return;
+            }
+            int x0 = (t % tilesX) * tileSize;
+            int y0 = (t / tilesX) * tileSize;
+            int tw = Math.min(tileSize, width - x0);
+            int th = Math.min(tileSize, height - y0);
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+            if (tile == null) {
+                minX = 0;
+                minY = 0;
+                maxX = tw - 1;
+                maxY = th - 1;
+            } else {
+                for (int y = 0; y < th; y++) {
+                    int row = y * tileSize;
+                    int left = 0;
+                    while (left < tw && tile[row + left] == backColor) {
+                        left++;
+                    }
+                    if (left == tw) {
+                        continue;
+                    }
+                    int right = tw - 1;
+                    while (tile[row + right] == backColor) {
+                        right--;
+                    }
+                    minX = Math.min(minX, left);
+                    maxX = Math.max(maxX, right);
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+                if (maxY < 0) {
+                    return;
+                }
+            }
+            synchronized (box) {
+                box[0] = Math.min(box[0], x0 + minX);
+                box[1] = Math.min(box[1], y0 + minY);
+                box[2] = Math.max(box[2], x0 + maxX);
+                box[3] = Math.max(box[3], y0 + maxY);
+            }
+        });
+        if (box[2] < 0) {
+            return new int[]{0, 0, width - 1, height - 1};
+        }
+        return box;
+    }
+
+    /**
+     * Computes bounds of the plot plane region, which contains all pixels different from back color of current
+     * coloring rule.
+     *
+     * @return bounds of the region
+     */
+    public Bounds computeBoundingBox() throws ExecutionException {
+        int[] box = computePixelBoundingBox();
+        float sX = bounds.getSpanX();
+        float sY = bounds.getSpanY();
+        return new Bounds(
+                bounds.getMinX() + ((float) box[0] / width) * sX,
+                bounds.getMinY() + (1 - (float) box[3] / height) * sY,
+                bounds.getMaxX() - (1 - (float) box[2] / width) * sX,
+                bounds.getMaxY() - ((float) box[1] / height) * sY);
+    }
+
+    /**
+     * Writes every allocated tile to file <code>dir/{tx}_{ty}.{format}</code>, where <code>tx</code> and
+     * <code>ty</code> are column and row of the tile. Tiles which were never touched are not written;
+     * they are filled with the color returned by <code>getClearColor</code>.
+     *
+     * @param dir    directory to write tiles to
+     * @param format image format
+     * @return this
+     */
+    public synchronized TiledPlot writeTiles(File dir, String format) throws IOException, ExecutionException {
+        writeLevel(dir, format, tiles, tilesX, tilesY, width, height);
+        return this;
+    }
+
+    /**
+     * Writes a tile pyramid: level 0, in directory <code>dir/0</code>, is the plot at full resolution (as written
+     * by <code>writeTiles</code>), every next level is half the width and height of the previous one, down to
+     * the level consisting of a single tile. Tiles are named <code>{tx}_{ty}.{format}</code> on every level;
+     * tiles which are uniformly filled with the clear color are not written.
+     *
+     * @param dir    directory to write levels to
+     * @param format image format
+     * @return number of levels written
+     */
+    public synchronized int writePyramid(File dir, String format) throws IOException, ExecutionException {
+        AtomicReferenceArray<int[]> level = tiles;
+        int levelTilesX = tilesX, levelTilesY = tilesY;
+        int levelWidth = width, levelHeight = height;
+        int levels = 0;
+        while (true) {
+            writeLevel(new File(dir, Integer.toString(levels++)), format, level, levelTilesX, levelTilesY,
+                    levelWidth, levelHeight);
+            if (levelTilesX == 1 && levelTilesY == 1) {
+                return levels;
+            }
+            int childTilesX = levelTilesX;
+            int childWidth = levelWidth, childHeight = levelHeight;
+            AtomicReferenceArray<int[]> children = level;
+            levelTilesX = (levelTilesX + 1) / 2;
+            levelTilesY = (levelTilesY + 1) / 2;
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+            level = downsample(children, childTilesX, childWidth, childHeight, levelTilesX, levelTilesY);
+        }
+    }
+
+    /**
+     * Returns color of a single pixel.
+     *
+     * @param x x-coordinate, in pixels
+     * @param y y-coordinate, in pixels
+     * @return color (ARGB)
+     */
+    public int getPixel(int x, int y) {
+        int[] tile = tiles.get((y / tileSize) * tilesX + x / tileSize);
+        return tile == null ? clearColor : tile[(y % tileSize) * tileSize + x % tileSize];
+    }
+
+    /**
+     * Returns pixels of a tile, row by row, each row is <code>getTileSize()</code> pixels long.
+     *
+     * @param tx column of the tile
+     * @param ty row of the tile
+     * @return pixels of the tile, or <code>null</code> if the tile was never touched
+     */
+    public int[] getTile(int tx, int ty) {
+        return tiles.get(ty * tilesX + tx);
+    }
+
+    /**
+     * @return Number of tiles, which currently have memory allocated.
+     */
+    public int getAllocatedTileCount() {
+        int count = 0;
+        for (int i = 0; i < tiles.length(); i++) {
+            if (tiles.get(i) != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Color of tiles, which were never touched since the last <code>clearPlot</code>.
+     */
+    public int getClearColor() {
+        return clearColor;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    public TiledPlot setColoringRule(ColoringRule rule) {
+        this.coloringRule = rule;
+        return this;
+    }
+
+    public ColoringRule getColoringRule() {
+        return coloringRule;
+    }
+
+    public TiledPlot setBounds(Bounds bounds) {
+        this.bounds = bounds;
+        return this;
+    }
+
+    public Bounds getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return Number of points rendered by a render thread as a single work unit.
+     */
+    public int getChunkGrainSize() {
+        return chunkGrainSize;
+    }
+
+    /**
+     * Sets number of points rendered by a render thread as a single work unit, see
+     * <code>RasterPlot.setChunkGrainSize</code>.
+     *
+     * @param chunkGrainSize New grain size, in points.
+     * @return this
+     */
+    public TiledPlot setChunkGrainSize(int chunkGrainSize) {
+        if (chunkGrainSize < 1) {
+            throw new IllegalArgumentException("Grain size must be positive: " + chunkGrainSize);
+        }
+        this.chunkGrainSize = chunkGrainSize;
+        return this;
+    }
+
+    public int getMaxThreadCount() {
+        return maxThreadCount;
+    }
+
+    /**
+     * Set maximum number of threads to specified value.
+     *
+     * @param maxThreadCount new thread limit.
+     * @return this
+     */
+    public synchronized TiledPlot setMaxThreadCount(int maxThreadCount) {
+        if (maxThreadCount != this.maxThreadCount) {
+            shutdown();
+        }
+        this.maxThreadCount = maxThreadCount;
+        return this;
+    }
+
+    /**
+     * Sets executor to run render threads, see <code>RasterPlot.setExecutor</code>.
+     *
+     * @param executor New executor, or <code>null</code> to go back to the default one.
+     * @return this
+     */
+    public synchronized TiledPlot setExecutor(ExecutorService executor) {
+        shutdown();
+        this.threadPool = executor;
+        this.ownsThreadPool = false;
+        return this;
+    }
+
+    /**
+     * Shuts down the thread pool of this <code>TiledPlot</code>, if it was created by it.
+     */
+    public synchronized void shutdown() {
+        if (ownsThreadPool && threadPool != null) {
+            threadPool.shutdown();
+            threadPool = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    double getScaleX() {
+        return bounds.getSpanX() / width;
+    }
+
+    double getScaleY() {
+        return bounds.getSpanY() / height;
+    }
+
+    /**
+     * Returns tile number <code>t</code>, allocating it if it was never touched.
+     */
+    private int[] tile(int t) {
+        int[] tile = tiles.get(t);
+        if (tile == null) {
+            int[] fresh = new int[tileSize * tileSize];
+            if (clearColor != 0) {
+                Arrays.fill(fresh, clearColor);
+            }
+            if (!tiles.compareAndSet(t, null, fresh)) {
+                tile = tiles.get(t);
+            } else {
+                tile = fresh;
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Builds the next level of a pyramid: every pixel is the per-channel average of 2x2 pixels of the level below.
+     * On the right and bottom edges of a level of odd size, only the pixels inside the level are averaged.
+     */
+    private AtomicReferenceArray<int[]> downsample(AtomicReferenceArray<int[]> children, int childTilesX,
+                                                   int childWidth, int childHeight,
+                                                   int parentTilesX, int parentTilesY) throws ExecutionException {
+        int childTilesY = children.length() / childTilesX;
+        AtomicReferenceArray<int[]> parents = new AtomicReferenceArray<>(parentTilesX * parentTilesY);
+        int half = tileSize / 2;
+        int back = clearColor;
+        parallel(parents.length(), maxThreadCount, () -> t -> {
+            int px = t % parentTilesX;
+            int py = t / parentTilesX;
+            int[] parent = null;
+            for (int q = 0; q < 4; q++) {
+                int cx = 2 * px + (q & 1);
+                int cy = 2 * py + (q >> 1);
+                if (cx >= childTilesX || cy >= childTilesY) {
+                    continue;
+                }
+                int[] child = children.get(cy * childTilesX + cx);
+                if (child == null) {
+                    continue;
+                }
+                if (parent == null) {
+                    parent = new int[tileSize * tileSize];
+                    Arrays.fill(parent, back);
+                }
+                int offset = (q >> 1) * half * tileSize + (q & 1) * half;
+                // pixels of edge tiles past the edge of the level are padding
+                int cw = Math.min(tileSize, childWidth - cx * tileSize);
+                int ch = Math.min(tileSize, childHeight - cy * tileSize);
+                for (int y = 0; 2 * y < ch; y++) {
+                    boolean down = 2 * y + 1 < ch;
+                    for (int x = 0; 2 * x < cw; x++) {
+                        boolean right = 2 * x + 1 < cw;
+                        int i = 2 * y * tileSize + 2 * x;
+                        // missing pixels are replaced by their neighbours inside the level
+                        int a = child[i];
+                        int b = right ? child[i + 1] : a;
+                        int c = down ? child[i + tileSize] : a;
+                        int d = down ? (right ? child[i + tileSize + 1] : c) : b;
+                        parent[offset + y * tileSize + x] = average(a, b, c, d);
+                    }
+                }
+            }
+            if (parent != null) {
+                parents.set(t, parent);
+            }
+        });
+        return parents;
+    }
+
+    private static int average(int a, int b, int c, int d) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+            result |= ((sum + 2) >> 2) << shift;
+        }
+        return result;
+    }
+
+    private void writeLevel(File dir, String format, AtomicReferenceArray<int[]> level, int levelTilesX,
+                            int levelTilesY, int levelWidth, int levelHeight) throws IOException, ExecutionException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        try {
+            parallel(level.length(), maxThreadCount, () -> t -> {
+                int[] tile = level.get(t);
+                if (tile == null) {
+                    return;
+                }
+                int tx = t % levelTilesX;
+                int ty = t / levelTilesX;
+                int tw = Math.min(tileSize, levelWidth - tx * tileSize);
+                int th = Math.min(tileSize, levelHeight - ty * tileSize);
+                BufferedImage image = new BufferedImage(tw, th, BufferedImage.TYPE_INT_ARGB);
+                image.setRGB(0, 0, tw, th, tile, 0, tileSize);
+                try {
+                    ImageIO.write(image, format, new File(dir, tx + "_" + ty + "." + format));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw unwrapIO(e);
+        }
+    }
+
+    /**
+     * Unwraps an <code>IOException</code> thrown by a worker, so that it is thrown as is.
+     */
+    private static ExecutionException unwrapIO(ExecutionException e) throws IOException {
+        if (e.getCause() instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) e.getCause()).getCause();
+        }
+        return e;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (threadPool == null) {
+            threadPool = new ForkJoinPool(maxThreadCount);
+            ownsThreadPool = true;
+        }
+        return threadPool;
+    }
+
+    /**
+     * Runs <code>workSize</code> work items on <code>threadCount</code> threads. Every thread creates its own
+     * <code>Work</code> instance, so per-thread buffers can be allocated once.
+     */
+    private synchronized void parallel(int workSize, int threadCount, WorkFactory factory) throws ExecutionException {
+        scheduler.reset(workSize, threadCount);
+        AtomicBoolean stopped = new AtomicBoolean();
+        ArrayList<Future<?>> futures = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            int worker = i;
+            futures.add(executor().submit(() -> {
+                Work work = factory.create();
+                int item;
+                while (!stopped.get() && (item = scheduler.next(worker)) >= 0) {
+                    work.process(item);
+                }
+            }));
+        }
+        // wait for threads to complete; if interrupted, stop them, but still wait, as they use the tiles
+        InterruptedException interrupted = null;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = e;
+                    stopped.set(true);
+                }
+            }
+        }
+        if (interrupted != null) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(interrupted);
+        }
+    }
+
+    private int parts(int length) {
+        return (int) Math.max(1, ((long) length + chunkGrainSize - 1) / chunkGrainSize);
+    }
+
+    private static final int BATCH_SIZE = 512;
+
+    private interface Work {
+        void process(int item);
+    }
+
+    private interface WorkFactory {
+        Work create();
+    }
+}
@@ -0,0 +1,95 @@
+package raster;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Work-stealing scheduler of work items <code>0 .. workSize - 1</code> (rows, tiles, ranges of chunks).
+ * Each worker starts with its own contiguous range of items, which keeps neighbouring items on the same
+ * thread; a worker which has run out of items steals the upper half of the largest remaining range of
+ * another worker.
+ * <p>
+ * Ranges are packed into <code>AtomicLong</code>s as (from, to) pairs and only ever shrink or split,
+ * so a compare-and-set can't mistake a stale range for a current one.
+ */
+final class WorkScheduler {
+
+    private AtomicLong[] ranges = new AtomicLong[0];
+
+    /**
+     * Prepares <code>workSize</code> items for <code>workers</code> workers. Must not be called while
+     * workers of the previous round are still running.
+     */
+    void reset(int workSize, int workers) {
+        if (ranges.length < workers) {
+            AtomicLong[] grown = new AtomicLong[workers];
+            for (int i = 0; i < workers; i++) {
+                grown[i] = i < ranges.length ? ranges[i] : new AtomicLong();
+            }
+            ranges = grown;
+        }
+        for (int i = 0; i < ranges.length; i++) {
+            int from = i < workers ? (int) ((long) workSize * i / workers) : 0;
+            int to = i < workers ? (int) ((long) workSize * (i + 1) / workers) : 0;
+            ranges[i].set(pack(from, to));
+        }
+    }
+
+    /**
+     * Takes next work item for worker <code>worker</code>.
+     *
+     * @return index of the item, or -1 if there are no items left
+     */
+    int next(int worker) {
+        AtomicLong own = ranges[worker];
+        while (true) {
+            long range = own.get();
+            int from = from(range);
+            if (from >= to(range)) {
+                break;
+            }
+            if (own.compareAndSet(range, pack(from + 1, to(range)))) {
+                return from;
+            }
+        }
+        return steal(own);
+    }
+
+    private int steal(AtomicLong own) {
+        while (true) {
+            AtomicLong victim = null;
+            long victimRange = 0;
+            int largest = 0;
+            for (AtomicLong candidate : ranges) {
+                long range = candidate.get();
+                int remaining = to(range) - from(range);
+                if (remaining > largest) {
+                    largest = remaining;
+                    victim = candidate;
+                    victimRange = range;
+                }
+            }
+            if (victim == null) {
+                return -1;
+            }
+            int from = from(victimRange);
+            int to = to(victimRange);
+            int middle = from + largest / 2;
+            if (victim.compareAndSet(victimRange, pack(from, middle))) {
+                own.set(pack(middle + 1, to));
+                return middle;
+            }
+        }
+    }
+
+    private static long pack(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    private static int from(long range) {
+        return (int) (range >>> 32);
+    }
+
+    private static int to(long range) {
+        return (int) range;
+    }
+}
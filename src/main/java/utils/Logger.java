@@ -1,16 +1,45 @@
 package utils;
 
 import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
-public class Logger {
+public class Logger implements AutoCloseable {
 
     public enum Level {INFO, WARNING, ERROR, NOTHING}
 
+    /**
+     * What an asynchronous logger does with a message when its buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the message; the number of dropped messages is logged once there is room again.
+         */
+        DROP,
+        /**
+         * Wait until the writer thread makes room.
+         */
+        BLOCK
+    }
+
     private PrintStream out;
     private Level level;
 
     private static final String fmt = "[%s] [%s] %s";
 
+    // asynchronous mode: ring of reusable records, filled by callers and written out by the writer thread
+    private final Record[] ring;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private long head, tail;
+    private long dropped, droppedReported;
+    private boolean closed;
+    private final Thread writer;
+
     public Logger() {
         this(System.out, Level.INFO);
     }
@@ -22,24 +51,272 @@ public class Logger {
     public Logger(PrintStream out, Level level) {
         this.out = out;
         this.level = level;
+        this.ring = null;
+        this.policy = null;
+        this.writer = null;
+    }
+
+    /**
+     * Creates an asynchronous logger: messages are put into a ring buffer of <code>capacity</code> records
+     * and formatted and printed by a background thread, so that callers never wait for formatting or output
+     * (unless the buffer is full and <code>policy</code> is <code>BLOCK</code>). Messages are printed in the
+     * order they are logged. Arguments of parameterized messages are formatted by the background thread,
+     * so they should not be changed after they are logged. Call <code>close</code> to print remaining
+     * messages and stop the thread.
+     *
+     * @param out      Destination of messages.
+     * @param level    Lowest level of messages which are printed.
+     * @param capacity Maximal number of messages waiting to be printed.
+     * @param policy   What to do with a message when the buffer is full.
+     */
+    public Logger(PrintStream out, Level level, int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Logger buffer must hold at least one message");
+        }
+        this.out = out;
+        this.level = level;
+        this.policy = policy;
+        this.ring = new Record[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Record();
+        }
+        this.writer = new Thread(this::drain, "logger-writer");
+        writer.setDaemon(true);
+        writer.start();
     }
 
-    public synchronized void log(String message, Level level) {
+    /**
+     * @return <code>true</code> if messages are printed by a background thread.
+     */
+    public boolean isAsync() {
+        return ring != null;
+    }
+
+    /**
+     * @return <code>true</code> if messages of <code>level</code> are printed.
+     */
+    public boolean isEnabled(Level level) {
+        return level != Level.NOTHING && this.level.compareTo(level) <= 0;
+    }
+
+    /**
+     * @return Number of messages dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void log(String message, Level level) {
+        if (ring == null) {
+            logNow(message, level);
+        } else {
+            enqueue(level, message, null, null);
+        }
+    }
+
+    private synchronized void logNow(String message, Level level) {
         out.println(String.format(fmt, level.toString(), Thread.currentThread().getName(), message));
     }
 
+    /**
+     * Logs message made by <code>String.format(format, args)</code>, formatting it only if
+     * <code>level</code> is enabled (in asynchronous mode, on the writer thread).
+     */
+    public void log(Level level, String format, Object... args) {
+        if (!isEnabled(level)) return;
+        if (ring == null) {
+            logNow(String.format(format, args), level);
+        } else {
+            enqueue(level, format, args, null);
+        }
+    }
+
+    /**
+     * Logs message made by <code>message</code>, calling it only if <code>level</code> is enabled
+     * (in asynchronous mode, on the writer thread).
+     */
+    public void log(Level level, Supplier<String> message) {
+        if (!isEnabled(level)) return;
+        if (ring == null) {
+            logNow(message.get(), level);
+        } else {
+            enqueue(level, null, null, message);
+        }
+    }
+
     public void error(String msg) {
         if (level.compareTo(Level.ERROR) > 0) return;
         log(msg, Level.ERROR);
     }
 
+    public void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
     public void warning(String msg) {
         if (level.compareTo(Level.WARNING) > 0) return;
         log(msg, Level.WARNING);
     }
 
+    public void warning(String format, Object... args) {
+        log(Level.WARNING, format, args);
+    }
+
     public void info(String msg) {
         if (level.compareTo(Level.INFO) > 0) return;
         log(msg, Level.INFO);
     }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    /**
+     * Waits until all messages logged so far are printed. Does nothing for synchronous loggers.
+     */
+    public void flush() throws InterruptedException {
+        if (ring == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            long target = tail;
+            while (head < target && writer.isAlive()) {
+                notFull.await(100, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Prints remaining messages and stops the writer thread of an asynchronous logger; messages logged
+     * afterwards are dropped. Does nothing for synchronous loggers.
+     */
+    @Override
+    public void close() {
+        if (ring == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(Level level, String message, Object[] args, Supplier<String> supplier) {
+        String thread = Thread.currentThread().getName();
+        lock.lock();
+        try {
+            while (tail - head == ring.length && !closed) {
+                if (policy == OverflowPolicy.DROP) {
+                    dropped++;
+                    return;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) {
+                dropped++;
+                return;
+            }
+            ring[(int) (tail % ring.length)].set(level, thread, message, args, supplier);
+            if (tail++ == head) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Body of the writer thread: formats and prints records outside of the lock, then hands their slots back.
+     */
+    private void drain() {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            long from, to, lost;
+            lock.lock();
+            try {
+                while (head == tail && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                from = head;
+                to = tail;
+                lost = dropped - droppedReported;
+                droppedReported = dropped;
+            } finally {
+                lock.unlock();
+            }
+            if (lost > 0) {
+                out.println(String.format(fmt, Level.WARNING, writer.getName(), lost + " messages dropped"));
+            }
+            if (from == to) {
+                // closed and drained
+                out.flush();
+                return;
+            }
+            // slots [from, to) are not touched by callers until head moves past them
+            for (long i = from; i < to; i++) {
+                Record record = ring[(int) (i % ring.length)];
+                line.setLength(0);
+                line.append('[').append(record.level).append("] [").append(record.thread).append("] ");
+                try {
+                    line.append(record.text());
+                } catch (RuntimeException e) {
+                    line.append("failed to format message: ").append(e);
+                }
+                out.println(line);
+                record.clear();
+            }
+            lock.lock();
+            try {
+                head = to;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Record {
+        Level level;
+        String thread;
+        String message;
+        Object[] args;
+        Supplier<String> supplier;
+
+        void set(Level level, String thread, String message, Object[] args, Supplier<String> supplier) {
+            this.level = level;
+            this.thread = thread;
+            this.message = message;
+            this.args = args;
+            this.supplier = supplier;
+        }
+
+        String text() {
+            if (supplier != null) {
+                return supplier.get();
+            }
+            return args == null ? message : String.format(message, args);
+        }
+
+        void clear() {
+            // don't keep arguments alive
+            set(null, null, null, null, null);
+        }
+    }
 }
@@ -1,15 +1,63 @@
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
+import raster.Bounds;
 import raster.ColoringRule;
+import raster.DoubleBounds;
+import raster.FrameRenderer;
+import raster.FrameSequence;
+import raster.FrameSink;
+import raster.Palette;
+import raster.PngWriter;
+import raster.PointSource;
 import raster.RasterPlot;
+import raster.RawFormat;
+import raster.RenderCache;
+import raster.RenderMetrics;
+import raster.RenderStats;
+import raster.ScalarRule;
+import raster.TiledPlot;
 import utils.Logger;
 
+import javax.imageio.ImageIO;
+import javax.management.ObjectName;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class BasicTests {
 
+    private static final ColoringRule CIRCLE = new ColoringRule() {
+        @Override
+        public int colorFunction(float x, float y) {
+            return x * x + y * y < 0.5f ? Color.RED.getRGB() : Color.GREEN.getRGB();
+        }
+    };
+
     private RasterPlot rasterPlot;
 
     @BeforeClass
@@ -19,7 +67,7 @@ public class BasicTests {
     }
 
     @Test
-    public void renderSolidTest() throws IOException {
+    public void renderSolidTest() throws Exception {
         rasterPlot.clearPlot()
                 .setColoringRule(new ColoringRule() {
                     @Override
@@ -54,4 +102,834 @@ public class BasicTests {
                 .saveToFile("test.png", "png");
     }
 
+    @Test
+    public void batchColoringTest() throws Exception {
+        ColoringRule perPixel = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return x * x + y * y < 0.5f ? Color.BLUE.getRGB() : Color.YELLOW.getRGB();
+            }
+        };
+        ColoringRule perRow = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                throw new AssertionError("row rule must not be called per pixel");
+            }
+
+            @Override
+            public void colorRow(float y, float x0, float dx, int[] out, int offset, int length) {
+                for (int i = 0; i < length; i++) {
+                    float x = x0 + (float) i * dx;
+                    out[offset + i] = x * x + y * y < 0.5f ? Color.BLUE.getRGB() : Color.YELLOW.getRGB();
+                }
+            }
+        };
+        RasterPlot plot = new RasterPlot(new Dimension(256, 128));
+        int[] expected = pixels(plot.setColoringRule(perPixel).renderSolid().getPlot()).clone();
+        int[] actual = pixels(plot.setColoringRule(perRow).renderSolid().getPlot());
+        assertTrue(Arrays.equals(expected, actual));
+        plot.shutdown();
+    }
+
+    @Test
+    public void densityBufferBudgetTest() throws Exception {
+        float[] chunk = new float[20000];
+        Random rng = new Random(7);
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (float) rng.nextGaussian() / 3;
+        }
+        RasterPlot plot = new RasterPlot(new Dimension(64, 64)).setChunkGrainSize(1000).putChunk(chunk);
+        int[] buffered = pixels(plot.renderDensity().getPlot()).clone();
+        // no room for per-thread buffers, all threads count in the shared one
+        int[] shared = pixels(plot.setDensityBufferBudget(0).renderDensity().getPlot());
+        assertTrue(Arrays.equals(buffered, shared));
+        plot.shutdown();
+    }
+
+    static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    public void interruptedDensityTest() throws Exception {
+        float[] chunk = new float[4000000];
+        Random rng = new Random(5);
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (float) rng.nextGaussian() / 3;
+        }
+        RasterPlot plot = new RasterPlot(new Dimension(64, 64)).setChunkGrainSize(2000).putChunk(chunk);
+        int[] expected = pixels(plot.renderDensity().getPlot()).clone();
+        Thread caller = Thread.currentThread();
+        for (int delay = 0; delay < 8; delay++) {
+            long nanos = delay * 500000L;
+            Thread interrupter = new Thread(() -> {
+                LockSupport.parkNanos(nanos);
+                caller.interrupt();
+            });
+            interrupter.start();
+            try {
+                plot.renderDensity();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof InterruptedException);
+            }
+            // the interrupt may come after the render is done, wait for it before clearing it
+            while (interrupter.isAlive()) {
+                LockSupport.parkNanos(100000);
+            }
+            Thread.interrupted();
+            // counts of an interrupted render are not added to the next one
+            assertTrue(Arrays.equals(expected, pixels(plot.renderDensity().getPlot())), "delay " + delay);
+        }
+        plot.shutdown();
+    }
+
+    @Test
+    public void densityTest() throws Exception {
+        RasterPlot plot = new RasterPlot(new Dimension(64, 64));
+        plot.putChunk(new float[]{0.5f, 0.5f, 0.5f, 0.5f})
+                .putChunk(new float[]{0.5f, 0.5f, -0.5f, -0.5f})
+                .setDensityTransfer(RasterPlot.DensityTransfer.LINEAR)
+                .setDensityColor(Color.BLACK.getRGB())
+                .renderDensity();
+        BufferedImage image = plot.getPlot();
+        Point dense = plot.planeToPixel(0.5f, 0.5f);
+        Point sparse = plot.planeToPixel(-0.5f, -0.5f);
+        assertEquals(image.getRGB(dense.x, dense.y), Color.BLACK.getRGB());
+        assertTrue(image.getRGB(sparse.x, sparse.y) != Color.WHITE.getRGB());
+        assertTrue(image.getRGB(sparse.x, sparse.y) != Color.BLACK.getRGB());
+        assertEquals(image.getRGB(0, 0), Color.WHITE.getRGB());
+        plot.shutdown();
+    }
+
+    @Test
+    public void streamTest() throws Exception {
+        Random rng = new Random(42);
+        // a single shared thread: an open stream must not hold it
+        ExecutorService shared = new ForkJoinPool(1);
+        RasterPlot stored = new RasterPlot(new Dimension(256, 256)).setExecutor(shared);
+        RasterPlot streamed = new RasterPlot(new Dimension(256, 256)).setExecutor(shared);
+        streamed.beginStream(2);
+        for (int j = 0; j < 16; j++) {
+            float[] chunk = new float[20000];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (float) rng.nextGaussian() * 0.5f;
+            }
+            stored.putChunk(chunk);
+            streamed.streamChunk(chunk);
+        }
+        stored.renderChunks();
+        streamed.endStream();
+        assertTrue(Arrays.equals(pixels(stored.getPlot()), pixels(streamed.getPlot())));
+
+        // interrupted end stops the workers and still ends the stream
+        streamed.beginStream(2).streamChunk(new float[]{0, 0});
+        Thread.currentThread().interrupt();
+        try {
+            streamed.endStream();
+            assertTrue(false, "interrupted endStream returned normally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        assertTrue(Thread.interrupted());
+        assertTrue(!streamed.isStreaming());
+        streamed.renderChunks();
+        stored.shutdown();
+        streamed.shutdown();
+        shared.shutdown();
+    }
+
+    @Test
+    public void mappedSourceTest() throws Exception {
+        Random rng = new Random(7);
+        float[] chunk = new float[200000];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (float) rng.nextGaussian() * 0.5f;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(chunk.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asFloatBuffer().put(chunk);
+        Path file = Files.createTempFile("points", ".bin");
+        Files.write(file, bytes.array());
+
+        RasterPlot fromChunk = new RasterPlot(new Dimension(256, 256)).putChunk(chunk).renderChunks();
+        RasterPlot fromFile = new RasterPlot(new Dimension(256, 256))
+                .putSource(PointSource.map(file, ByteOrder.LITTLE_ENDIAN))
+                .renderChunks();
+        assertTrue(Arrays.equals(pixels(fromChunk.getPlot()), pixels(fromFile.getPlot())));
+        fromChunk.shutdown();
+        fromFile.shutdown();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void tiledTest() throws Exception {
+        ColoringRule rule = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return Math.abs(x * x * x - y) < 0.1f ? Color.RED.getRGB() : Color.GREEN.getRGB();
+            }
+        };
+        RasterPlot plot = new RasterPlot(new Dimension(500, 300)).setColoringRule(rule).renderSolid();
+        TiledPlot tiled = new TiledPlot(500, 300, 64, raster.Bounds.createDefaultBounds(), rule).renderSolid();
+        for (int y = 0; y < 300; y++) {
+            for (int x = 0; x < 500; x++) {
+                assertEquals(tiled.getPixel(x, y), plot.getPlot().getRGB(x, y));
+            }
+        }
+
+        // bounds which are not symmetric around zero map the same way, too
+        raster.Bounds shifted = new raster.Bounds(-0.5f, 0.2f, 1.5f, 1.3f);
+        plot.setBounds(shifted).renderSolid();
+        tiled.setBounds(shifted).renderSolid();
+        for (int y = 0; y < 300; y++) {
+            for (int x = 0; x < 500; x++) {
+                assertEquals(tiled.getPixel(x, y), plot.getPlot().getRGB(x, y));
+            }
+        }
+
+        // tiles written straight to files are the same, and are not kept
+        Path tilesDir = Files.createTempDirectory("tiles");
+        tiled.clearPlot().writeSolidTiles(tilesDir.toFile(), "png");
+        assertEquals(tiled.getAllocatedTileCount(), 0);
+        BufferedImage corner = javax.imageio.ImageIO.read(tilesDir.resolve("7_4.png").toFile());
+        assertEquals(corner.getWidth(), 500 - 7 * 64);
+        assertEquals(corner.getHeight(), 300 - 4 * 64);
+        for (int y = 0; y < corner.getHeight(); y++) {
+            for (int x = 0; x < corner.getWidth(); x++) {
+                assertEquals(corner.getRGB(x, y), plot.getPlot().getRGB(7 * 64 + x, 4 * 64 + y));
+            }
+        }
+
+        tiled.clearPlot().putChunk(new float[]{0.5f, 0.5f}).renderChunks();
+        assertEquals(tiled.getAllocatedTileCount(), 1);
+        int[] box = tiled.computePixelBoundingBox();
+        assertEquals(box[0], box[2]);
+        assertEquals(box[1], box[3]);
+
+        // a chunk split into many ranges draws the same points
+        float[] chunk = new float[20000];
+        Random rng = new Random(3);
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (float) rng.nextGaussian();
+        }
+        plot.clearPlot().putChunk(chunk).renderChunks();
+        tiled.clearPlot().clearData().setChunkGrainSize(100).putChunk(chunk).renderChunks();
+        for (int y = 0; y < 300; y++) {
+            for (int x = 0; x < 500; x++) {
+                assertEquals(tiled.getPixel(x, y), plot.getPlot().getRGB(x, y));
+            }
+        }
+        plot.shutdown();
+        tiled.shutdown();
+
+        // levels of odd size don't average padding of edge tiles into their last pixels
+        ColoringRule red = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return Color.RED.getRGB();
+            }
+        };
+        Path dir = Files.createTempDirectory("pyramid");
+        TiledPlot small = new TiledPlot(3, 1, 2, raster.Bounds.createDefaultBounds(), red).renderSolid();
+        assertEquals(small.writePyramid(dir.toFile(), "png"), 2);
+        BufferedImage top = javax.imageio.ImageIO.read(dir.resolve("1").resolve("0_0.png").toFile());
+        assertEquals(top.getWidth(), 2);
+        assertEquals(top.getRGB(0, 0), Color.RED.getRGB());
+        assertEquals(top.getRGB(1, 0), Color.RED.getRGB());
+        small.shutdown();
+    }
+
+    @Test
+    public void incrementalPanTest() throws Exception {
+        AtomicInteger evaluations = new AtomicInteger();
+        RasterPlot plot = new RasterPlot(new Dimension(400, 300))
+                .setBounds(new raster.Bounds(-1, -1, 1, 1))
+                .setColoringRule(new ColoringRule() {
+                    @Override
+                    public int colorFunction(float x, float y) {
+                        evaluations.incrementAndGet();
+                        return Math.abs(x * x * x - y) < 0.1f ? Color.RED.getRGB() : Color.GREEN.getRGB();
+                    }
+                })
+                .renderSolid();
+        assertEquals(evaluations.getAndSet(0), 400 * 300);
+
+        // pan by 5 pixels right and 3 pixels along y
+        float minX = -1 + 5 * 2f / 400;
+        float minY = -1 + 3 * 2f / 300;
+        plot.setBounds(new raster.Bounds(minX, minY, minX + 2, minY + 2)).renderSolidIncremental();
+        assertEquals(evaluations.get(), 3 * 400 + 5 * (300 - 3));
+
+        // a twentieth of a pixel off is not a whole pixel shift, however wide the plot is
+        plot.setResolution(new Dimension(2000, 10)).setBounds(new raster.Bounds(-1, -1, 1, 1)).renderSolid();
+        evaluations.set(0);
+        minX = -1 + 5.05f * 2f / 2000;
+        plot.setBounds(new raster.Bounds(minX, -1, minX + 2, 1)).renderSolidIncremental();
+        assertEquals(evaluations.get(), 2000 * 10);
+        plot.shutdown();
+    }
+
+    @Test
+    public void adaptiveSolidTest() throws Exception {
+        AtomicInteger evaluations = new AtomicInteger();
+        ColoringRule rule = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                evaluations.incrementAndGet();
+                return x * x + y * y < 0.5f ? Color.RED.getRGB() : Color.GREEN.getRGB();
+            }
+        };
+        RasterPlot plot = new RasterPlot(new Dimension(256, 256)).setColoringRule(rule);
+        int[] exact = pixels(plot.renderSolid().getPlot());
+        evaluations.set(0);
+        int[] adaptive = pixels(plot.renderSolidAdaptive().getPlot());
+        assertTrue(Arrays.equals(exact, adaptive));
+        assertTrue(evaluations.get() < 256 * 256 / 2);
+        plot.shutdown();
+    }
+
+    @Test
+    public void progressiveSolidTest() throws Exception {
+        ColoringRule rule = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return x * x + y * y < 0.5f ? Color.RED.getRGB() : Color.GREEN.getRGB();
+            }
+        };
+        RasterPlot plot = new RasterPlot(new Dimension(256, 256)).setColoringRule(rule);
+        int[] exact = pixels(plot.renderSolid().getPlot());
+        List<Integer> steps = new ArrayList<>();
+        plot.clearPlot().renderSolidProgressive((image, step) -> steps.add(step));
+        assertEquals(steps, Arrays.asList(8, 4, 2, 1));
+        assertTrue(!plot.isProgressiveRenderAborted());
+        assertTrue(Arrays.equals(exact, pixels(plot.getPlot())));
+
+        // coarse pixels of an aborted render are not shifted by an incremental pan
+        float minX = -1 + 5 * 2f / 256;
+        Bounds panned = new Bounds(minX, -1, minX + 2, 1);
+        plot.renderSolid().renderSolidProgressive((image, step) -> plot.setBounds(panned));
+        assertTrue(plot.isProgressiveRenderAborted());
+        int[] incremental = pixels(plot.renderSolidIncremental().getPlot()).clone();
+        assertTrue(Arrays.equals(incremental, pixels(plot.renderSolid().getPlot())));
+        plot.shutdown();
+    }
+
+    @Test
+    public void supersampledSolidTest() throws Exception {
+        ColoringRule rule = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return Math.abs(x * x * x - y) < 0.1f ? Color.RED.getRGB() : Color.GREEN.getRGB();
+            }
+        };
+        RasterPlot plot = new RasterPlot(new Dimension(256, 256)).setColoringRule(rule);
+        int[] exact = pixels(plot.renderSolid().getPlot());
+        assertTrue(Arrays.equals(exact, pixels(plot.renderSolidSupersampled(1, false).getPlot())));
+
+        // edges of the curve get colors in between red and green
+        boolean blended = false;
+        for (int color : pixels(plot.renderSolidSupersampled(4, true).getPlot())) {
+            blended |= color != Color.RED.getRGB() && color != Color.GREEN.getRGB();
+        }
+        assertTrue(blended);
+        plot.shutdown();
+    }
+
+    @Test
+    public void sharedExecutorTest() throws Exception {
+        ExecutorService shared = new ForkJoinPool(2);
+        int[] expected;
+        try (RasterPlot plot = new RasterPlot(new Dimension(128, 128))) {
+            expected = pixels(plot.setMaxThreadCount(8).setColoringRule(CIRCLE).renderSolid().getPlot());
+        }
+        for (int i = 0; i < 3; i++) {
+            try (RasterPlot plot = new RasterPlot(new Dimension(128, 128))) {
+                plot.setExecutor(shared).setColoringRule(CIRCLE).renderSolid();
+                assertTrue(Arrays.equals(expected, pixels(plot.getPlot())));
+            }
+        }
+        // a new thread limit keeps both the shared executor and the driver of async renders
+        try (RasterPlot plot = new RasterPlot(new Dimension(128, 128))) {
+            plot.setExecutor(shared).setColoringRule(CIRCLE).renderSolidAsync().get(5, TimeUnit.SECONDS);
+            plot.setMaxThreadCount(3).clearPlotAsync().get(5, TimeUnit.SECONDS);
+            assertTrue(plot.getExecutor() == shared);
+            plot.renderSolidAsync().get(5, TimeUnit.SECONDS);
+            assertTrue(Arrays.equals(expected, pixels(plot.getPlot())));
+        }
+        assertTrue(!shared.isShutdown());
+        shared.shutdown();
+    }
+
+    @Test
+    public void spatialIndexTest() throws Exception {
+        Random rng = new Random(3);
+        RasterPlot linear = new RasterPlot(new Dimension(256, 256));
+        RasterPlot indexed = new RasterPlot(new Dimension(256, 256));
+        for (int j = 0; j < 4; j++) {
+            float[] chunk = new float[200000];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (float) rng.nextGaussian();
+            }
+            linear.putChunk(chunk);
+            indexed.putChunk(chunk);
+            if (j == 1) {
+                // chunks put after this are indexed incrementally
+                indexed.buildSpatialIndex(64);
+            }
+        }
+        // small chunks are indexed together, once there are enough of them, and some are left over
+        for (int j = 0; j < 300; j++) {
+            float[] chunk = new float[j % 50 == 0 ? 0 : 500];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (float) rng.nextGaussian();
+            }
+            linear.putChunk(chunk);
+            indexed.putChunk(chunk);
+        }
+        raster.Bounds zoomed = new raster.Bounds(0.25f, 0.25f, 0.5f, 0.5f);
+        linear.setBounds(zoomed).renderDensity();
+        indexed.setBounds(zoomed).renderDensity();
+        assertTrue(indexed.hasSpatialIndex());
+        assertTrue(Arrays.equals(pixels(linear.getPlot()), pixels(indexed.getPlot())));
+
+        for (int cells : new int[]{0, 1 << 16}) {
+            try {
+                indexed.buildSpatialIndex(cells);
+                assertTrue(false, cells + " cells per axis accepted");
+            } catch (IllegalArgumentException e) {
+                assertTrue(indexed.hasSpatialIndex());
+            }
+        }
+        linear.close();
+        indexed.close();
+    }
+
+    @Test
+    public void boundingBoxTest() throws Exception {
+        RasterPlot plot = new RasterPlot(new Dimension(200, 100));
+        int back = plot.getColoringRule().getBackColor();
+        // nothing but back color: the whole plot plane, as before
+        assertTrue(Arrays.equals(new int[]{0, 0, 199, 99}, plot.clearPlot().computePixelBoundingBox()));
+
+        // tracked by renderChunks
+        plot.putChunk(new float[]{-0.5f, 0.5f, 0.25f, -0.25f}).renderChunks();
+        int[] tracked = plot.computePixelBoundingBox();
+        // found by scanning the plot
+        int[] scanned = plot.invalidateBoundingBox().computePixelBoundingBox(back);
+        assertTrue(Arrays.equals(tracked, scanned));
+        assertEquals(tracked[0], 50);
+        assertEquals(tracked[2], 125);
+
+        plot.drawBox(new int[]{10, 10, 190, 90}, ~back);
+        assertTrue(Arrays.equals(new int[]{0, 0, 199, 99}, plot.computePixelBoundingBox()));
+        plot.close();
+    }
+
+    @Test
+    public void dataBoundsTest() throws Exception {
+        Random rng = new Random(11);
+        RasterPlot plot = new RasterPlot(new Dimension(100, 100)).trackDataQuantiles(1024);
+        float[] chunk = new float[400000];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = rng.nextFloat() * 2 - 1;
+        }
+        chunk[0] = 100;
+        plot.putChunk(chunk);
+
+        raster.Bounds all = plot.computeDataBounds();
+        assertEquals(all.getMaxX(), 100f);
+        raster.Bounds robust = plot.computeDataBounds(0.001, 0.999);
+        assertTrue(robust.getMaxX() < 1 && robust.getMaxX() > 0.99f);
+        assertTrue(robust.getMinY() > -1 && robust.getMinY() < -0.99f);
+
+        // every point ends up inside of fitted bounds
+        plot.fitBoundsToData().clearPlot().renderChunks();
+        assertTrue(Arrays.equals(plot.computePixelBoundingBox(), new int[]{0, 0, 99, 99}));
+        boolean outlierDrawn = false;
+        for (int y = 0; y < 100; y++) {
+            outlierDrawn |= plot.getPlot().getRGB(99, y) != plot.getColoringRule().getBackColor();
+        }
+        assertTrue(outlierDrawn);
+        assertTrue(plot.clearData().computeDataBounds() == null);
+        plot.close();
+    }
+
+    @Test
+    public void pngWriterTest() throws Exception {
+        RasterPlot plot = new RasterPlot(new Dimension(301, 203)).setColoringRule(new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return (int) (x * 100) << 24 | (int) (y * 1000) & 0xFFFFFF;
+            }
+        }).renderSolid();
+        Path file = Files.createTempFile("plot", ".png");
+        for (PngWriter.Filter filter : PngWriter.Filter.values()) {
+            // small bands, so that the image is split into many of them
+            plot.getPngWriter().setFilter(filter).setCompressionLevel(1).setBandSize(4096);
+            plot.saveToFile(file.toString(), "png");
+            assertTrue(Arrays.equals(pixels(plot.getPlot()), pixels(ImageIO.read(file.toFile()))));
+        }
+        plot.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void rawExportTest() throws Exception {
+        RasterPlot plot = new RasterPlot(new Dimension(120, 80)).setColoringRule(CIRCLE).renderSolid();
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) RawFormat.RGBA.getSize(120, 80));
+        plot.exportRaw(buffer, RawFormat.RGBA);
+        assertEquals(buffer.remaining(), 0);
+        int color = plot.getPlot().getRGB(0, 0);
+        assertEquals(buffer.getInt(0), color << 8 | color >>> 24);
+
+        // resolution comes from the header
+        Path file = Files.createTempFile("plot", ".pam");
+        plot.saveRaw(file.toString(), RawFormat.PAM);
+        RasterPlot loaded = new RasterPlot(new Dimension(10, 10)).loadRaw(file.toString(), RawFormat.PAM);
+        assertEquals(loaded.getResolution(), new Dimension(120, 80));
+        assertTrue(Arrays.equals(pixels(plot.getPlot()), pixels(loaded.getPlot())));
+        plot.close();
+        loaded.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void frameSequenceTest() throws Exception {
+        Dimension resolution = new Dimension(64, 48);
+        int frames = 10;
+        int frameSize = (int) RawFormat.ARGB.getSize(64, 48);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FrameSequence sequence = new FrameSequence(resolution, 3, 2, 2)) {
+            sequence.run(frames,
+                    FrameRenderer.solid(frame -> new raster.Bounds(-1, -1, 1 + frame * 0.1f, 1), frame -> CIRCLE),
+                    FrameSink.rawStream(Channels.newChannel(out), RawFormat.ARGB));
+        }
+        assertEquals(out.size(), frames * frameSize);
+
+        // frames arrive in order, each the same as rendered on its own
+        RasterPlot plot = new RasterPlot(resolution).setColoringRule(CIRCLE);
+        ByteBuffer expected = ByteBuffer.allocate(frameSize);
+        for (int frame = 0; frame < frames; frame++) {
+            expected.clear();
+            plot.setBounds(new raster.Bounds(-1, -1, 1 + frame * 0.1f, 1)).renderSolid().exportRaw(expected, RawFormat.ARGB);
+            assertTrue(Arrays.equals(expected.array(),
+                    Arrays.copyOfRange(out.toByteArray(), frame * frameSize, (frame + 1) * frameSize)));
+        }
+
+        // a frame which fails before its turn stops the frames after it instead of leaving them waiting
+        out.reset();
+        FrameSink sink = FrameSink.rawStream(Channels.newChannel(out), RawFormat.ARGB);
+        CompletableFuture<Void> later = CompletableFuture.runAsync(() -> {
+            try {
+                sink.write(plot, 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            sink.write(null, 0);
+            assertTrue(false, "frame of no plot written");
+        } catch (NullPointerException e) {
+            // expected
+        }
+        try {
+            later.get(10, TimeUnit.SECONDS);
+            assertTrue(false, "frame after a failed one written");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UncheckedIOException);
+        }
+        assertEquals(out.size(), 0);
+        plot.close();
+    }
+
+    @Test
+    public void scalarFieldTest() throws Exception {
+        AtomicInteger evaluations = new AtomicInteger();
+        RasterPlot plot = new RasterPlot(new Dimension(64, 64));
+        plot.setScalarRule(new ScalarRule() {
+            @Override
+            public float valueFunction(float x, float y) {
+                evaluations.incrementAndGet();
+                return x * x + y * y < 0.5f ? x : Float.NaN;
+            }
+        }).setPalette(Palette.gradient(16, Color.BLACK.getRGB(), Color.RED.getRGB())).renderField();
+        assertEquals(evaluations.get(), 64 * 64);
+        BufferedImage image = plot.getPlot();
+        Point center = plot.planeToPixel(0, 0);
+        assertEquals(image.getRGB(0, 0), Color.WHITE.getRGB());
+        int before = image.getRGB(center.x, center.y);
+        assertTrue(before != Color.WHITE.getRGB());
+
+        // recoloring does not evaluate the rule again
+        plot.setPalette(Palette.gradient(16, Color.BLUE.getRGB(), Color.BLUE.getRGB())).remapField();
+        assertEquals(image.getRGB(center.x, center.y), Color.BLUE.getRGB());
+        plot.setPalette(Palette.gradient(16, Color.BLACK.getRGB(), Color.RED.getRGB())).remapField();
+        assertEquals(image.getRGB(center.x, center.y), before);
+        plot.setFieldRange(1, 2).remapField();
+        assertEquals(image.getRGB(center.x, center.y), Color.BLACK.getRGB());
+        plot.setFieldRange(-2, -1).remapField();
+        assertEquals(image.getRGB(center.x, center.y), Color.RED.getRGB());
+        assertEquals(image.getRGB(0, 0), Color.WHITE.getRGB());
+        assertEquals(evaluations.get(), 64 * 64);
+        plot.close();
+    }
+
+    @Test
+    public void renderCacheTest() throws Exception {
+        AtomicInteger evaluations = new AtomicInteger();
+        ColoringRule rule = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                evaluations.incrementAndGet();
+                return CIRCLE.colorFunction(x, y);
+            }
+        };
+        // room for two views
+        RenderCache cache = new RenderCache(2 * 64 * 64 * 4);
+        RasterPlot plot = new RasterPlot(new Dimension(64, 64)).setColoringRule(rule).setRenderCache(cache);
+        int[] full = pixels(plot.renderSolid().getPlot());
+        plot.setBounds(new raster.Bounds(0, 0, 1, 1)).renderSolid();
+        assertEquals(evaluations.get(), 2 * 64 * 64);
+        assertEquals(cache.getMisses(), 2);
+
+        plot.setBounds(new raster.Bounds(-1, -1, 1, 1)).renderSolid();
+        assertTrue(Arrays.equals(pixels(plot.getPlot()), full));
+        assertEquals(evaluations.get(), 2 * 64 * 64);
+        assertEquals(cache.getHits(), 1);
+
+        // a changed rule is rendered again, pushing the least recently used view out
+        rule.invalidate();
+        plot.renderSolid();
+        assertEquals(evaluations.get(), 3 * 64 * 64);
+        assertEquals(cache.getEvictions(), 1);
+        assertEquals(cache.getEntryCount(), 2);
+        assertTrue(cache.getSize() <= cache.getBudget());
+        plot.close();
+    }
+
+    @Test
+    public void renderMetricsTest() throws Exception {
+        List<RenderMetrics> passes = new ArrayList<>();
+        RenderStats stats = new RenderStats();
+        RasterPlot plot = new RasterPlot(new Dimension(64, 32)).setColoringRule(CIRCLE).setMaxThreadCount(2);
+        plot.addRenderListener((p, metrics) -> passes.add(metrics)).addRenderListener(stats);
+        plot.renderSolid();
+        assertEquals(passes.size(), 1);
+        RenderMetrics solid = passes.get(0);
+        assertEquals(solid.getPass(), "SOLID");
+        assertEquals(solid.getPixels(), 64 * 32);
+        assertEquals(solid.getWorkerCount(), 2);
+        assertTrue(solid.getImbalance() >= 1);
+        assertTrue(solid.getWallNanos() > 0);
+
+        // two of three points are outside of bounds
+        plot.putChunk(new float[]{0, 0, 5, 5, -5, 0}).renderChunks();
+        RenderMetrics chunks = passes.get(passes.size() - 1);
+        assertEquals(chunks.getPass(), "CHUNKS");
+        assertEquals(chunks.getPoints(), 3);
+        assertEquals(chunks.getCulledPoints(), 2);
+        assertEquals(chunks.getSegments(), 0);
+
+        // the same points as a polyline: three vertices, and the second of two segments is outside of bounds
+        plot.renderPolylines();
+        RenderMetrics polylines = passes.get(passes.size() - 1);
+        assertEquals(polylines.getPass(), "POLYLINES");
+        assertEquals(polylines.getPoints(), 3);
+        assertEquals(polylines.getCulledPoints(), 0);
+        assertEquals(polylines.getSegments(), 2);
+        assertEquals(polylines.getCulledSegments(), 1);
+
+        ObjectName name = stats.register("renderMetricsTest");
+        try {
+            assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RenderCount"), 3L);
+            assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CulledPoints"), 2L);
+            assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Segments"), 2L);
+        } finally {
+            stats.unregister();
+        }
+        plot.close();
+    }
+
+    @Test
+    public void asyncLoggerTest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AtomicInteger formatted = new AtomicInteger();
+        try (Logger logger = new Logger(new PrintStream(bytes, true), Logger.Level.WARNING, 4,
+                Logger.OverflowPolicy.BLOCK)) {
+            for (int i = 0; i < 100; i++) {
+                logger.warning("message %d", i);
+            }
+            // filtered out messages are never formatted
+            logger.log(Logger.Level.INFO, () -> "skipped " + formatted.incrementAndGet());
+            // plain messages stay unambiguous
+            logger.info(null);
+            logger.flush();
+        }
+        String[] lines = bytes.toString().split("\\R");
+        assertEquals(lines.length, 100);
+        assertEquals(lines[99], "[WARNING] [" + Thread.currentThread().getName() + "] message 99");
+        assertEquals(formatted.get(), 0);
+
+        // a stalled output drops messages instead of blocking callers
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Logger logger = new Logger(new PrintStream(stalled), Logger.Level.INFO, 2, Logger.OverflowPolicy.DROP);
+        for (int i = 0; i < 10; i++) {
+            logger.info("message " + i);
+        }
+        assertTrue(logger.getDroppedCount() >= 7);
+        release.countDown();
+        logger.close();
+    }
+
+    @Test
+    public void asyncRenderTest() throws Exception {
+        RasterPlot expected = new RasterPlot(new Dimension(64, 64)).setColoringRule(CIRCLE).renderSolid();
+        RasterPlot plot = new RasterPlot(new Dimension(64, 64)).setColoringRule(CIRCLE);
+        assertTrue(plot.renderSolidAsync().get() == plot);
+        assertTrue(Arrays.equals(pixels(plot.getPlot()), pixels(expected.getPlot())));
+        assertTrue(!plot.isRenderStopped());
+
+        // a rule which takes 10 ms per row
+        ColoringRule slow = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return Color.BLACK.getRGB();
+            }
+
+            @Override
+            public void colorRow(float y, float x0, float dx, int[] out, int offset, int length) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.colorRow(y, x0, dx, out, offset, length);
+            }
+        };
+        plot.setColoringRule(slow);
+        plot.renderSolidAsync(50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+        assertTrue(plot.isRenderStopped());
+
+        // a render which took all of its work before the deadline is complete, even if it ends after it
+        RasterPlot row = new RasterPlot(new Dimension(64, 1)).setColoringRule(new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return Color.BLACK.getRGB();
+            }
+
+            @Override
+            public void colorRow(float y, float x0, float dx, int[] out, int offset, int length) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+                super.colorRow(y, x0, dx, out, offset, length);
+            }
+        });
+        row.renderSolidAsync(50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+        assertTrue(!row.isRenderStopped());
+        assertEquals(row.getPlot().getRGB(63, 0), Color.BLACK.getRGB());
+        row.close();
+
+        // cancelled renders stop, queued ones are skipped, later ones still run
+        CompletableFuture<RasterPlot> running = plot.renderSolidAsync();
+        CompletableFuture<RasterPlot> queued = plot.renderSolidAsync();
+        queued.cancel(false);
+        running.cancel(false);
+        plot.setColoringRule(CIRCLE);
+        plot.clearPlotAsync().get(5, TimeUnit.SECONDS);
+        assertTrue(queued.isCancelled() && running.isCancelled(), queued + " " + running);
+        assertEquals(plot.getPlot().getRGB(32, 32), CIRCLE.getBackColor());
+        plot.close();
+        expected.close();
+    }
+
+    @Test
+    public void doublePrecisionTest() throws Exception {
+        ColoringRule edge = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return x > 0.3f ? Color.RED.getRGB() : Color.GREEN.getRGB();
+            }
+
+            @Override
+            public int colorFunction(double x, double y) {
+                return x > 0.3 ? Color.RED.getRGB() : Color.GREEN.getRGB();
+            }
+        };
+        // span of 1e-9 around 0.3 is below float resolution
+        RasterPlot plot = new RasterPlot(new Dimension(64, 16)).setColoringRule(edge)
+                .setBounds(new DoubleBounds(0.3 - 5e-10, -5e-10, 0.3 + 5e-10, 5e-10));
+        BufferedImage image = plot.renderSolid().getPlot();
+        assertEquals(image.getRGB(0, 8), image.getRGB(63, 8));
+
+        plot.setPrecision(RasterPlot.Precision.DOUBLE).renderSolid();
+        assertEquals(image.getRGB(0, 8), Color.GREEN.getRGB());
+        assertEquals(image.getRGB(63, 8), Color.RED.getRGB());
+
+        // the other solid renders take the double path too
+        int[] solid = pixels(image);
+        assertTrue(Arrays.equals(pixels(plot.clearPlot().renderSolidAdaptive().getPlot()), solid));
+        assertTrue(Arrays.equals(pixels(plot.clearPlot().renderSolidProgressive((i, step) -> {
+        }).getPlot()), solid));
+        plot.clearPlot().renderSolidSupersampled(2, false);
+        assertEquals(image.getRGB(0, 8), Color.GREEN.getRGB());
+        assertEquals(image.getRGB(63, 8), Color.RED.getRGB());
+
+        // at ordinary zoom both precisions agree
+        plot.setBounds(new raster.Bounds(-1, -1, 1, 1)).setColoringRule(CIRCLE).renderSolid();
+        int[] precise = pixels(image);
+        plot.setPrecision(RasterPlot.Precision.FLOAT).renderSolid();
+        assertTrue(Arrays.equals(pixels(image), precise));
+        plot.close();
+    }
+
+    @Test
+    public void polylineTest() throws Exception {
+        ColoringRule black = new ColoringRule() {
+            @Override
+            public int colorFunction(float x, float y) {
+                return Color.BLACK.getRGB();
+            }
+        };
+        // a horizontal line, a break, and a vertical line which runs out of bounds on both ends
+        float nan = Float.NaN;
+        RasterPlot plot = new RasterPlot(new Dimension(64, 64)).setColoringRule(black).setChunkGrainSize(1)
+                .putChunk(new float[]{-0.9f, 0.4f, 0.9f, 0.4f, nan, nan, -0.5f, -2f, -0.5f, 2f});
+        BufferedImage image = plot.clearPlot().renderPolylines().getPlot();
+        // y = 0.4 is between pixel rows, where planeToPixel rounds up and points are drawn one row below
+        Point left = plot.planeToPixel(-0.9f, 0.4f);
+        Point right = plot.planeToPixel(0.9f, 0.4f);
+        left.y++;
+        for (int x = left.x; x <= right.x; x++) {
+            assertEquals(image.getRGB(x, left.y), Color.BLACK.getRGB(), "column " + x);
+        }
+        int column = plot.planeToPixel(-0.5f, 0).x;
+        for (int y = 0; y < 64; y++) {
+            assertEquals(image.getRGB(column, y), Color.BLACK.getRGB(), "row " + y);
+        }
+        // nothing joins the lines across the break
+        Point gap = plot.planeToPixel(0.2f, -0.75f);
+        assertEquals(image.getRGB(gap.x, gap.y), Color.WHITE.getRGB());
+
+        // anti-aliased lines on the border of pixel rows are blended into both of them
+        plot.clearData().putChunk(new float[]{-0.9f, 0.5f, 0.9f, 0.5f}).clearPlot().renderPolylines(true);
+        Point middle = plot.planeToPixel(0, 0.5f);
+        int above = image.getRGB(middle.x, middle.y), below = image.getRGB(middle.x, middle.y + 1);
+        assertTrue(above != Color.WHITE.getRGB() && above != Color.BLACK.getRGB(), Integer.toHexString(above));
+        assertTrue(below != Color.WHITE.getRGB() && below != Color.BLACK.getRGB(), Integer.toHexString(below));
+
+        // joints of anti-aliased segments, within and across work units, are blended once
+        int[] straight = pixels(image).clone();
+        plot.clearData().putChunk(new float[]{-0.9f, 0.5f, -0.3f, 0.5f, 0.1f, 0.5f, 0.6f, 0.5f, 0.9f, 0.5f})
+                .clearPlot().renderPolylines(true);
+        assertTrue(Arrays.equals(straight, pixels(image)));
+        plot.close();
+    }
 }